@@ -0,0 +1,66 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Reference sets of 9x9 puzzles in the 81 character format read by {@link SudokuBoard#fromString(String)}.
+ * Every puzzle has a unique solution.
+ */
+enum SudokuPuzzleCorpus
+{
+	/**
+	 * Puzzles which are solved by naked and hidden singles alone.
+	 */
+	EASY(
+			"..3.2.6..9..3.5..1..18.64....81.29..7.......8..67.82....26.95..8..2.3..9..5.1.3..",
+			"2...8.3...6..7..84.3.5..2.9...1.54.8.........4.27.6...3.1..7.4.72..4..6...4.1...3",
+			"......9.7...42.18....7.5.261..9.4....5.....4....5.7..992.1.8....34.59...5.7......",
+			".3..5..4...8.1.5..46.....12.7.5.2.8....6.3....4.1.9.3.25.....98..1.2.6...8..6..2.",
+			"53..7....6..195....98....6.8...6...34..8.3..17...2...6.6....28....419..5....8..79"
+	),
+	/**
+	 * Puzzles which need a few hundred search nodes after propagation.
+	 */
+	HARD(
+			"4.....8.5.3..........7......2.....6.....8.4......1.......6.3.7.5..2.....1.4......",
+			"52...6.........7.13...........4..8..6......5...........418.........3..2...87.....",
+			"6.....8.3.4.7.................5.4.7.3..2.....1.6.......2.....5.....8.6......1....",
+			"48.3............71.2.......7.5....6....2..8.............1.76...3.....4......5....",
+			"....14....3....2...7..........9...3.6.1.............8.2.....1.4....5.6.....7.8...",
+			"......52..8.4......3...9...5.1...6..2..7........3.....6...1..........7.4.......3."
+	),
+	/**
+	 * Puzzles which are known to be adversarial for row-major Depth-First Search.
+	 */
+	ADVERSARIAL(
+			// Constructed against brute force: the first row solves to 987654321
+			"..............3.85..1.2.......5.7.....4...1...9.......5......73..2.1........4...9",
+			// AI Escargot
+			"1....7.9..3..2...8..96..5....53..9...1..8...26....4...3......1..4......7..7...3..",
+			// Easter Monster
+			"1.......2.9.4...5...6...7...5.9.3.......7.......85..4.7.....6...3...9.8...2.....1",
+			// Golden Nugget
+			".......39.....1..5..3.5.8....8.9...6.7...2...1..4.......9.8..5..2....6..4..7.....",
+			// Arto Inkala, 2012
+			"8..........36......7..9.2...5...7.......457.....1...3...1....68..85...1..9....4.."
+	);
+
+	private final String[] puzzles;
+
+	SudokuPuzzleCorpus(String... puzzles)
+	{
+		this.puzzles = puzzles;
+	}
+
+	/**
+	 * Returns a new board for every puzzle in this corpus.
+	 */
+	SudokuBoard[] createBoards()
+	{
+		SudokuBoard[] boards = new SudokuBoard[puzzles.length];
+		for (int i = 0; i < boards.length; i++)
+		{
+			boards[i] = SudokuBoard.fromString(puzzles[i]);
+		}
+
+		return boards;
+	}
+}
@@ -0,0 +1,161 @@
+package com.cwools.plugins.sudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of {@link SudokuBoard#solve()} with and without a {@link SudokuSolutionCache}, on a
+ * stream of boards in which every puzzle of a {@link SudokuPuzzleCorpus} set appears a number of
+ * times, each time relabeled, permuted and possibly transposed.
+ * <p>
+ * Each operation starts from an empty cache and solves the whole stream once, so a score includes
+ * the searches which fill the cache. With a single copy of every puzzle nothing can be reused, and
+ * the score shows what the cache costs on a stream of unique puzzles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SudokuSolutionCacheBenchmark
+{
+	private static final int SIZE = 9;
+	private static final int SQUARE_SIZE = 3;
+	private static final long SEED = 42L;
+
+	@State(Scope.Thread)
+	public static class Stream
+	{
+		// JMH's generated code lives in another package, so the corpus is named rather than referenced
+		@Param({"EASY", "HARD", "ADVERSARIAL"})
+		public String corpus;
+
+		@Param({"1", "8"})
+		public int copies;
+
+		@Param({"false", "true"})
+		public boolean cached;
+
+		private SudokuBoard[] boards;
+
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			SudokuBoard[] originals = SudokuPuzzleCorpus.valueOf(corpus).createBoards();
+			Random random = new Random(SEED);
+			boards = new SudokuBoard[originals.length * copies];
+			for (int copy = 0; copy < copies; copy++)
+			{
+				for (int i = 0; i < originals.length; i++)
+				{
+					boards[copy * originals.length + i] = SudokuBoard.fromString(transform(originals[i], random));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void solveStream(Stream state, Blackhole blackhole)
+	{
+		SudokuSolutionCache solutionCache = state.cached ? new SudokuSolutionCache(state.boards.length) : null;
+		for (SudokuBoard board : state.boards)
+		{
+			board.setSolutionCache(solutionCache);
+			board.reset();
+			blackhole.consume(board.solve());
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(SudokuSolutionCacheBenchmark.class.getSimpleName())
+				.build();
+
+		new Runner(options).run();
+	}
+
+	/**
+	 * Returns the puzzle of the given board as a string, after randomly relabeling its values,
+	 * reordering its bands, stacks, rows and columns, and possibly transposing it.
+	 */
+	private static String transform(SudokuBoard board, Random random)
+	{
+		int[] rowOrder = shuffleLines(random);
+		int[] columnOrder = shuffleLines(random);
+		int[] labels = new int[SIZE + 1];
+		for (int value = 1; value <= SIZE; value++)
+		{
+			int other = 1 + random.nextInt(value);
+			labels[value] = labels[other];
+			labels[other] = value;
+		}
+		boolean transposed = random.nextBoolean();
+
+		StringBuilder puzzle = new StringBuilder(SIZE * SIZE);
+		for (int row = 0; row < SIZE; row++)
+		{
+			for (int column = 0; column < SIZE; column++)
+			{
+				int value = transposed ? board.getCellValue(columnOrder[column], rowOrder[row]) : board.getCellValue(rowOrder[row], columnOrder[column]);
+				puzzle.append(value == 0 ? '.' : (char) ('0' + labels[value]));
+			}
+		}
+
+		return puzzle.toString();
+	}
+
+	/**
+	 * Returns a random order of the lines of a grid which keeps the lines of every band together.
+	 */
+	private static int[] shuffleLines(Random random)
+	{
+		int[] bands = shuffle(random);
+		int[] lines = new int[SIZE];
+		for (int band = 0; band < SQUARE_SIZE; band++)
+		{
+			int[] within = shuffle(random);
+			for (int i = 0; i < SQUARE_SIZE; i++)
+			{
+				lines[band * SQUARE_SIZE + i] = bands[band] * SQUARE_SIZE + within[i];
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Returns a random permutation of 0, 1 and 2.
+	 */
+	private static int[] shuffle(Random random)
+	{
+		int[] order = {0, 1, 2};
+		for (int i = SQUARE_SIZE - 1; i > 0; i--)
+		{
+			int other = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[other];
+			order[other] = swap;
+		}
+
+		return order;
+	}
+}
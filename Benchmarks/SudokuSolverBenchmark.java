@@ -0,0 +1,208 @@
+package com.cwools.plugins.sudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of {@link SudokuBoard#solve()} for every {@link SudokuSolver} engine. 9x9 boards
+ * are measured on the easy, hard and adversarial {@link SudokuPuzzleCorpus} sets, and 16x16 and
+ * 25x25 grids on puzzles generated from a fixed seed.
+ * <p>
+ * Each operation solves every puzzle of the chosen set once, so scores are per set rather than per
+ * puzzle. Running {@link #main(String[])} reports throughput, average time and, through the GC
+ * profiler, the allocation rate of every configuration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SudokuSolverBenchmark
+{
+	private static final int GENERATED_PUZZLES = 5;
+	private static final double GENERATED_CLUE_RATIO = 0.6;
+	private static final long SEED = 42L;
+
+	/**
+	 * The solver engines which can be benchmarked.
+	 */
+	public enum Engine
+	{
+		DEPTH_FIRST,
+		DANCING_LINKS,
+		PARALLEL;
+
+		/**
+		 * Creates a solver of this engine for the given layout, running parallel searches on the given pool.
+		 */
+		SudokuSolver create(SudokuLayout layout, ForkJoinPool pool)
+		{
+			switch (this)
+			{
+				case DANCING_LINKS:
+					return new DancingLinksSolver(layout);
+				case PARALLEL:
+					return new ParallelSudokuSolver(pool, layout);
+				default:
+					return new DepthFirstSolver(layout);
+			}
+		}
+	}
+
+	/**
+	 * 9x9 boards built from one of the puzzle corpora.
+	 */
+	@State(Scope.Thread)
+	public static class StandardBoards
+	{
+		@Param
+		public Engine engine;
+
+		// JMH's generated code lives in another package, so the corpus is named rather than referenced
+		@Param({"EASY", "HARD", "ADVERSARIAL"})
+		public String corpus;
+
+		private ForkJoinPool pool;
+		private SudokuBoard[] boards;
+
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			pool = new ForkJoinPool();
+			SudokuSolver solver = engine.create(SudokuLayout.STANDARD, pool);
+			boards = SudokuPuzzleCorpus.valueOf(corpus).createBoards();
+			for (SudokuBoard board : boards)
+			{
+				board.setSolver(solver);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Generated puzzles of the larger layouts, which are solved on a copy of the grid.
+	 */
+	@State(Scope.Thread)
+	public static class GeneratedGrids
+	{
+		@Param
+		public Engine engine;
+
+		@Param({"4", "5"})
+		public int squareSize;
+
+		private ForkJoinPool pool;
+		private SudokuSolver solver;
+		private byte[][] puzzles;
+		private byte[] grid;
+
+		@Setup(Level.Trial)
+		public void setUp()
+		{
+			SudokuLayout layout = SudokuLayout.of(squareSize);
+			pool = new ForkJoinPool();
+			solver = engine.create(layout, pool);
+			grid = new byte[layout.cellCount];
+
+			Random random = new Random(SEED);
+			puzzles = new byte[GENERATED_PUZZLES][];
+			for (int i = 0; i < puzzles.length; i++)
+			{
+				puzzles[i] = generate(layout, random);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public void solveStandard(StandardBoards state, Blackhole blackhole)
+	{
+		for (SudokuBoard board : state.boards)
+		{
+			board.reset();
+			blackhole.consume(board.solve());
+		}
+	}
+
+	@Benchmark
+	public void solveGenerated(GeneratedGrids state, Blackhole blackhole)
+	{
+		for (byte[] puzzle : state.puzzles)
+		{
+			System.arraycopy(puzzle, 0, state.grid, 0, puzzle.length);
+			blackhole.consume(state.solver.solve(state.grid));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(SudokuSolverBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+
+	/**
+	 * Generates a puzzle by shuffling the values of a patterned solution and keeping a random
+	 * subset of its cells as clues.
+	 */
+	private static byte[] generate(SudokuLayout layout, Random random)
+	{
+		int[] relabel = new int[layout.size + 1];
+		for (int value = 1; value <= layout.size; value++)
+		{
+			int other = 1 + random.nextInt(value);
+			relabel[value] = relabel[other];
+			relabel[other] = value;
+		}
+
+		byte[] grid = new byte[layout.cellCount];
+		for (int cell = 0; cell < grid.length; cell++)
+		{
+			if (random.nextDouble() >= GENERATED_CLUE_RATIO)
+			{
+				continue;
+			}
+
+			int row = layout.cellRow[cell];
+			int column = layout.cellColumn[cell];
+			int value = (layout.squareSize * (row % layout.squareSize) + row / layout.squareSize + column) % layout.size + 1;
+			grid[cell] = (byte) relabel[value];
+		}
+
+		return grid;
+	}
+}
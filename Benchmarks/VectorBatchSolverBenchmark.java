@@ -0,0 +1,136 @@
+package com.cwools.plugins.sudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark which finds the batch size from which {@link VectorBatchSolver} beats solving
+ * every board on its own with {@link DepthFirstSolver}. Every operation solves the same generated
+ * puzzles, split into batches of the chosen size, so scores are per board and can be compared
+ * across batch sizes directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(VectorBatchSolverBenchmark.PUZZLE_COUNT)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class VectorBatchSolverBenchmark
+{
+	static final int PUZZLE_COUNT = 1024;
+	private static final long SEED = 42L;
+
+	@Param({"1", "2", "4", "8", "16", "32", "64", "256", "1024"})
+	public int batchSize;
+
+	// JMH's generated code lives in another package, so the difficulty is named rather than referenced
+	@Param({"MEDIUM", "HARD"})
+	public String difficulty;
+
+	private byte[][] puzzles;
+	private byte[][][] batches;
+	private VectorBatchSolver vectorSolver;
+	private DepthFirstSolver scalarSolver;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		SudokuGenerator generator = new SudokuGenerator(ForkJoinPool.commonPool(), SEED);
+		List<SudokuGenerator.GeneratedPuzzle> generated = generator.generateAll(0, PUZZLE_COUNT, SudokuGenerator.Difficulty.valueOf(difficulty));
+		puzzles = new byte[PUZZLE_COUNT][];
+		for (int i = 0; i < PUZZLE_COUNT; i++)
+		{
+			puzzles[i] = generated.get(i).getPuzzle();
+		}
+
+		batches = new byte[PUZZLE_COUNT / batchSize][batchSize][];
+		for (byte[][] batch : batches)
+		{
+			for (int i = 0; i < batchSize; i++)
+			{
+				batch[i] = new byte[SudokuLayout.STANDARD.cellCount];
+			}
+		}
+
+		vectorSolver = new VectorBatchSolver(SudokuLayout.STANDARD, batchSize);
+		scalarSolver = new DepthFirstSolver();
+		if (!vectorSolver.isVectorized())
+		{
+			throw new IllegalStateException("The Vector API is not available, so there is nothing to compare");
+		}
+	}
+
+	@Benchmark
+	public int solveVectorized()
+	{
+		int solved = 0;
+		for (int i = 0; i < batches.length; i++)
+		{
+			byte[][] batch = copyBatch(i);
+			solved += vectorSolver.solveAll(batch);
+		}
+
+		return solved;
+	}
+
+	@Benchmark
+	public int solveScalar()
+	{
+		int solved = 0;
+		for (int i = 0; i < batches.length; i++)
+		{
+			for (byte[] grid : copyBatch(i))
+			{
+				if (scalarSolver.solve(grid))
+				{
+					solved++;
+				}
+			}
+		}
+
+		return solved;
+	}
+
+	/**
+	 * Resets the grids of the given batch to their puzzles.
+	 */
+	private byte[][] copyBatch(int index)
+	{
+		byte[][] batch = batches[index];
+		for (int i = 0; i < batch.length; i++)
+		{
+			System.arraycopy(puzzles[index * batchSize + i], 0, batch[i], 0, batch[i].length);
+		}
+
+		return batch;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(VectorBatchSolverBenchmark.class.getSimpleName())
+				.build();
+
+		new Runner(options).run();
+	}
+}
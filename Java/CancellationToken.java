@@ -0,0 +1,44 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Allows a running solve to be stopped from another thread. Solvers poll the token periodically
+ * and give up cleanly once it is cancelled. A token may be linked to a parent, in which case it is
+ * also cancelled whenever the parent is.
+ */
+class CancellationToken
+{
+	private final CancellationToken parent;
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a token which is only cancelled through {@link #cancel()}.
+	 */
+	CancellationToken()
+	{
+		this(null);
+	}
+
+	/**
+	 * Creates a token which is cancelled through {@link #cancel()} or whenever the given parent is.
+	 */
+	CancellationToken(CancellationToken parent)
+	{
+		this.parent = parent;
+	}
+
+	/**
+	 * Requests that any solve using this token stops as soon as possible.
+	 */
+	void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether or not this token or its parent has been cancelled.
+	 */
+	boolean isCancelled()
+	{
+		return cancelled || (parent != null && parent.isCancelled());
+	}
+}
@@ -0,0 +1,263 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Content-defined chunk list of an update package, published next to remoteHash.txt so that
+ * clients can rebuild a new package from the chunks they already have.
+ * <p>
+ * Chunk boundaries are placed where a gear rolling hash of the preceding bytes matches a mask,
+ * so they depend on the content rather than on offsets. Changing one entry of a zip therefore
+ * only changes the chunks around it, even though every later entry moves. Each chunk is
+ * identified by a strong hash of the algorithm used for package hashes.
+ * <p>
+ * The manifest is a text file. The first line holds the package hash and size, and every other
+ * line holds the offset, length and hash of one chunk, in package order.
+ */
+class ChunkManifest
+{
+	static final int MIN_CHUNK_SIZE = 2 * 1024;
+	static final int MAX_CHUNK_SIZE = 64 * 1024;
+	// Boundaries occur on average every 8 KiB past the minimum chunk size
+	private static final long BOUNDARY_MASK = (1L << 13) - 1 << 51;
+	private static final long[] GEAR = createGearTable();
+
+	private final String packageHash;
+	private final long packageSize;
+	private final List<Chunk> chunks;
+
+	/**
+	 * Chunk manifest constructor
+	 *
+	 * @param packageHash hash of the whole package
+	 * @param packageSize size of the whole package in bytes
+	 * @param chunks      the chunks of the package, in order
+	 */
+	ChunkManifest(String packageHash, long packageSize, List<Chunk> chunks)
+	{
+		this.packageHash = packageHash;
+		this.packageSize = packageSize;
+		this.chunks = Collections.unmodifiableList(chunks);
+	}
+
+	String getPackageHash()
+	{
+		return packageHash;
+	}
+
+	long getPackageSize()
+	{
+		return packageSize;
+	}
+
+	List<Chunk> getChunks()
+	{
+		return chunks;
+	}
+
+	/**
+	 * A contiguous range of a package.
+	 */
+	static class Chunk
+	{
+		private final long offset;
+		private final int length;
+		private final String hash;
+
+		Chunk(long offset, int length, String hash)
+		{
+			this.offset = offset;
+			this.length = length;
+			this.hash = hash;
+		}
+
+		long getOffset()
+		{
+			return offset;
+		}
+
+		int getLength()
+		{
+			return length;
+		}
+
+		String getHash()
+		{
+			return hash;
+		}
+	}
+
+	/**
+	 * Creates the manifest of the given package.
+	 *
+	 * @param packageFile the package to be split into chunks
+	 */
+	static ChunkManifest create(Path packageFile) throws IOException
+	{
+		MessageDigest packageDigest = UpdateClient.createPackageDigest();
+		List<Chunk> chunks = splitIntoChunks(packageFile, packageDigest);
+		return new ChunkManifest(UpdateClient.toHex(packageDigest.digest()), Files.size(packageFile), chunks);
+	}
+
+	/**
+	 * Splits the given file into content-defined chunks, feeding every byte to the given digest.
+	 *
+	 * @param file   the file to be split
+	 * @param digest digest which receives the whole file, or null
+	 * @return the chunks of the file, in order
+	 */
+	static List<Chunk> splitIntoChunks(Path file, MessageDigest digest) throws IOException
+	{
+		List<Chunk> chunks = new ArrayList<>();
+		MessageDigest chunkDigest = UpdateClient.createPackageDigest();
+		byte[] buffer = new byte[MAX_CHUNK_SIZE * 4];
+		try (InputStream inputStream = Files.newInputStream(file))
+		{
+			long chunkOffset = 0;
+			int chunkLength = 0;
+			long rollingHash = 0;
+			int read;
+			while ((read = inputStream.read(buffer)) != -1)
+			{
+				if (digest != null)
+				{
+					digest.update(buffer, 0, read);
+				}
+
+				int pending = 0;
+				for (int i = 0; i < read; i++)
+				{
+					rollingHash = (rollingHash << 1) + GEAR[buffer[i] & 0xFF];
+					chunkLength++;
+					if (chunkLength >= MAX_CHUNK_SIZE || chunkLength >= MIN_CHUNK_SIZE && (rollingHash & BOUNDARY_MASK) == 0)
+					{
+						chunkDigest.update(buffer, pending, i + 1 - pending);
+						chunks.add(new Chunk(chunkOffset, chunkLength, UpdateClient.toHex(chunkDigest.digest())));
+						chunkOffset += chunkLength;
+						chunkLength = 0;
+						rollingHash = 0;
+						pending = i + 1;
+					}
+				}
+				chunkDigest.update(buffer, pending, read - pending);
+			}
+
+			if (chunkLength > 0)
+			{
+				chunks.add(new Chunk(chunkOffset, chunkLength, UpdateClient.toHex(chunkDigest.digest())));
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Reads a manifest in the format written by {@link #write(OutputStream)}.
+	 */
+	static ChunkManifest read(InputStream inputStream) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String header = reader.readLine();
+		if (header == null)
+		{
+			throw new IOException("Chunk manifest is empty.");
+		}
+
+		try
+		{
+			String[] headerFields = header.trim().split(" ");
+			List<Chunk> chunks = new ArrayList<>();
+			long expectedOffset = 0;
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.trim().isEmpty())
+				{
+					continue;
+				}
+
+				String[] fields = line.trim().split(" ");
+				Chunk chunk = new Chunk(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), fields[2]);
+				if (chunk.getOffset() != expectedOffset || chunk.getLength() <= 0 || chunk.getLength() > MAX_CHUNK_SIZE)
+				{
+					throw new IOException("Chunk manifest has an invalid chunk at offset " + fields[0] + ".");
+				}
+				expectedOffset += chunk.getLength();
+				chunks.add(chunk);
+			}
+
+			long packageSize = Long.parseLong(headerFields[1]);
+			if (expectedOffset != packageSize)
+			{
+				throw new IOException("Chunk manifest does not cover the whole package.");
+			}
+
+			return new ChunkManifest(headerFields[0], packageSize, chunks);
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			throw new IOException("Chunk manifest is malformed.", e);
+		}
+	}
+
+	/**
+	 * Writes this manifest as text.
+	 */
+	void write(OutputStream outputStream) throws IOException
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		writer.write(packageHash + " " + packageSize + "\n");
+		for (Chunk chunk : chunks)
+		{
+			writer.write(chunk.getOffset() + " " + chunk.getLength() + " " + chunk.getHash() + "\n");
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Creates the gear table of the rolling hash. The table must be identical for publishers and
+	 * clients, so it is derived with SplitMix64 from a fixed seed rather than from a library RNG.
+	 */
+	private static long[] createGearTable()
+	{
+		long[] table = new long[256];
+		long state = 0x5DEECE66DL;
+		for (int i = 0; i < table.length; i++)
+		{
+			state += 0x9E3779B97F4A7C15L;
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			table[i] = z ^ (z >>> 31);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Writes the manifest of a package, for use by the publisher.
+	 *
+	 * @param args the package file followed by the manifest file to be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: ChunkManifest <package> <manifest>");
+			return;
+		}
+
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(args[1])))
+		{
+			create(Paths.get(args[0])).write(outputStream);
+		}
+	}
+}
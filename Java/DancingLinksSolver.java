@@ -0,0 +1,413 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Exact cover solver based on Knuth's Algorithm X with Dancing Links. Each candidate placement of
+ * a value in a cell is a matrix row covering four constraints: the cell is filled, and the value
+ * appears once in the cell's row, column and square. The search always branches on the constraint
+ * with the fewest remaining candidates, which avoids the worst cases of row-major DFS.
+ * <p>
+ * The link matrix is built once per solver instance. Clues are applied by covering their rows and
+ * are uncovered again once the search finishes, so the matrix can be reused for the next puzzle.
+ * Counting solutions runs the same search, continuing past each solution until the limit is reached.
+ * Every recursive step counts as a search node, and the limits of a solve are checked in the same
+ * way as {@link DepthFirstSolver} does.
+ */
+class DancingLinksSolver implements SudokuSolver
+{
+	private static final int ROOT = 0;
+	private static final int LIMIT_POLL_MASK = 0xFF;
+
+	private final int size;
+	private final int cellCount;
+	private final int constraintCount;
+
+	// Node links. Node 0 is the root, followed by one header per constraint and four nodes per placement.
+	private final int[] left;
+	private final int[] right;
+	private final int[] up;
+	private final int[] down;
+	private final int[] header;
+	private final int[] columnSize;
+
+	private final int[] clueNodes;
+	private int clueCount;
+	private final int[] solutionNodes;
+	private int solutionDepth;
+	private int solutionCount;
+
+	private SolveLimits limits = SolveLimits.NONE;
+	private long deadlineNanos;
+	private SolveResult.Status stopReason;
+	private long nodesVisited;
+	private long backtracks;
+
+	/**
+	 * Creates a solver for standard 9x9 grids.
+	 */
+	DancingLinksSolver()
+	{
+		this(SudokuLayout.STANDARD);
+	}
+
+	/**
+	 * Creates a solver for grids of the given layout.
+	 */
+	DancingLinksSolver(SudokuLayout layout)
+	{
+		size = layout.size;
+		cellCount = layout.cellCount;
+		constraintCount = cellCount * 4;
+		int placementCount = cellCount * size;
+		columnSize = new int[constraintCount + 1];
+		clueNodes = new int[cellCount];
+		solutionNodes = new int[cellCount];
+
+		int nodeCount = 1 + constraintCount + placementCount * 4;
+		left = new int[nodeCount];
+		right = new int[nodeCount];
+		up = new int[nodeCount];
+		down = new int[nodeCount];
+		header = new int[nodeCount];
+
+		for (int column = 0; column <= constraintCount; column++)
+		{
+			left[column] = column == 0 ? constraintCount : column - 1;
+			right[column] = column == constraintCount ? 0 : column + 1;
+			up[column] = column;
+			down[column] = column;
+			header[column] = column;
+		}
+
+		int node = constraintCount + 1;
+		for (int placement = 0; placement < placementCount; placement++)
+		{
+			int cell = placement / size;
+			int digit = placement % size;
+
+			int first = node;
+			appendNode(node++, 1 + cell);
+			appendNode(node++, 1 + cellCount + layout.cellRow[cell] * size + digit);
+			appendNode(node++, 1 + cellCount * 2 + layout.cellColumn[cell] * size + digit);
+			appendNode(node++, 1 + cellCount * 3 + layout.cellSquare[cell] * size + digit);
+
+			for (int i = first; i < node; i++)
+			{
+				left[i] = i == first ? node - 1 : i - 1;
+				right[i] = i == node - 1 ? first : i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Links the given node into the bottom of the given constraint column.
+	 */
+	private void appendNode(int node, int column)
+	{
+		header[node] = column;
+		up[node] = up[column];
+		down[node] = column;
+		down[up[column]] = node;
+		up[column] = node;
+		columnSize[column]++;
+	}
+
+	@Override
+	public boolean solve(byte[] grid)
+	{
+		startSearch(SolveLimits.NONE, 0L);
+		return solveLoaded(grid);
+	}
+
+	@Override
+	public SolveResult solve(byte[] grid, SolveLimits limits)
+	{
+		long startNanos = System.nanoTime();
+		startSearch(limits, startNanos);
+		boolean solved = solveLoaded(grid);
+
+		SolveResult.Status status = solved ? SolveResult.Status.SOLVED : stopReason != null ? stopReason : SolveResult.Status.UNSOLVABLE;
+		return new SolveResult(status, nodesVisited, backtracks, 0L, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Solves the given grid within the limits of the current search.
+	 */
+	private boolean solveLoaded(byte[] grid)
+	{
+		boolean solved = applyClues(grid) && search(0, 1) && stopReason == null;
+		if (solved)
+		{
+			for (int i = 0; i < solutionDepth; i++)
+			{
+				int placement = (solutionNodes[i] - constraintCount - 1) / 4;
+				grid[placement / size] = (byte) (placement % size + 1);
+			}
+		}
+
+		removeClues();
+		return solved;
+	}
+
+	@Override
+	public int countSolutions(byte[] grid, int limit)
+	{
+		if (limit <= 0)
+		{
+			return 0;
+		}
+
+		startSearch(SolveLimits.NONE, 0L);
+		if (applyClues(grid))
+		{
+			search(0, limit);
+		}
+
+		removeClues();
+		return solutionCount;
+	}
+
+	/**
+	 * Resets the counters and applies the given limits to the next search.
+	 */
+	private void startSearch(SolveLimits limits, long startNanos)
+	{
+		this.limits = limits;
+		this.deadlineNanos = startNanos + limits.getTimeoutNanos();
+		stopReason = null;
+		solutionCount = 0;
+		nodesVisited = 0;
+		backtracks = 0;
+	}
+
+	/**
+	 * Checks the limits of the current search before another node is visited.
+	 *
+	 * @return The reason the search has to stop, or null if it may continue.
+	 */
+	private SolveResult.Status checkLimits()
+	{
+		if (nodesVisited >= limits.getMaxNodes())
+		{
+			return SolveResult.Status.NODE_LIMIT_REACHED;
+		}
+
+		if ((nodesVisited & LIMIT_POLL_MASK) == 0)
+		{
+			CancellationToken cancellationToken = limits.getCancellationToken();
+			if (cancellationToken != null && cancellationToken.isCancelled())
+			{
+				return SolveResult.Status.CANCELLED;
+			}
+			if (limits.getTimeoutNanos() > 0 && System.nanoTime() - deadlineNanos >= 0)
+			{
+				return SolveResult.Status.TIMED_OUT;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Covers the placements of every clue in the given grid.
+	 *
+	 * @return Whether or not the clues are consistent with each other. Either way, the clues which
+	 * were applied must be removed with {@link #removeClues()} afterwards.
+	 */
+	private boolean applyClues(byte[] grid)
+	{
+		clueCount = 0;
+		for (int cell = 0; cell < cellCount; cell++)
+		{
+			int value = grid[cell];
+			if (value == 0)
+			{
+				continue;
+			}
+
+			// Reject clues which satisfy a constraint already covered by an earlier clue
+			int node = getPlacementNode(cell, value);
+			int i = node;
+			do
+			{
+				if (isCovered(header[i]))
+				{
+					return false;
+				}
+				i = right[i];
+			}
+			while (i != node);
+
+			coverRow(node);
+			clueNodes[clueCount++] = node;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Uncovers the clues applied by the last call to {@link #applyClues(byte[])}, restoring the
+	 * matrix to its initial state.
+	 */
+	private void removeClues()
+	{
+		for (int i = clueCount - 1; i >= 0; i--)
+		{
+			uncoverRow(clueNodes[i]);
+		}
+		clueCount = 0;
+	}
+
+	/**
+	 * Recursively searches for exact covers of the remaining constraints until the given number of
+	 * solutions has been found. The rows of the last solution found are stored in solutionNodes.
+	 *
+	 * @return Whether or not the search has to stop, either because the solution limit has been
+	 * reached or because one of the search limits has, in which case stopReason is set.
+	 */
+	private boolean search(int depth, int limit)
+	{
+		if (right[ROOT] == ROOT)
+		{
+			solutionDepth = depth;
+			return ++solutionCount >= limit;
+		}
+
+		stopReason = checkLimits();
+		if (stopReason != null)
+		{
+			return true;
+		}
+		nodesVisited++;
+
+		int column = chooseColumn();
+		if (columnSize[column] == 0)
+		{
+			return false;
+		}
+
+		cover(column);
+		for (int node = down[column]; node != column; node = down[node])
+		{
+			solutionNodes[depth] = node;
+			for (int i = right[node]; i != node; i = right[i])
+			{
+				cover(header[i]);
+			}
+
+			boolean done = search(depth + 1, limit);
+
+			for (int i = left[node]; i != node; i = left[i])
+			{
+				uncover(header[i]);
+			}
+
+			if (done)
+			{
+				uncover(column);
+				return true;
+			}
+		}
+
+		uncover(column);
+		backtracks++;
+		return false;
+	}
+
+	/**
+	 * Returns the uncovered constraint with the fewest remaining candidates.
+	 */
+	private int chooseColumn()
+	{
+		int best = right[ROOT];
+		for (int column = right[best]; column != ROOT && columnSize[best] > 1; column = right[column])
+		{
+			if (columnSize[column] < columnSize[best])
+			{
+				best = column;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Removes the given constraint and every placement which satisfies it from the matrix.
+	 */
+	private void cover(int column)
+	{
+		right[left[column]] = right[column];
+		left[right[column]] = left[column];
+		for (int i = down[column]; i != column; i = down[i])
+		{
+			for (int j = right[i]; j != i; j = right[j])
+			{
+				down[up[j]] = down[j];
+				up[down[j]] = up[j];
+				columnSize[header[j]]--;
+			}
+		}
+	}
+
+	/**
+	 * Restores the given constraint, undoing {@link #cover(int)}.
+	 */
+	private void uncover(int column)
+	{
+		for (int i = up[column]; i != column; i = up[i])
+		{
+			for (int j = left[i]; j != i; j = left[j])
+			{
+				columnSize[header[j]]++;
+				down[up[j]] = j;
+				up[down[j]] = j;
+			}
+		}
+		right[left[column]] = column;
+		left[right[column]] = column;
+	}
+
+	/**
+	 * Covers every constraint satisfied by the placement containing the given node.
+	 */
+	private void coverRow(int node)
+	{
+		int i = node;
+		do
+		{
+			cover(header[i]);
+			i = right[i];
+		}
+		while (i != node);
+	}
+
+	/**
+	 * Uncovers every constraint satisfied by the placement containing the given node, in the
+	 * reverse order of {@link #coverRow(int)}.
+	 */
+	private void uncoverRow(int node)
+	{
+		int i = left[node];
+		do
+		{
+			uncover(header[i]);
+			i = left[i];
+		}
+		while (i != left[node]);
+	}
+
+	/**
+	 * Returns whether or not the given constraint has been removed from the header list.
+	 */
+	private boolean isCovered(int column)
+	{
+		return right[left[column]] != column;
+	}
+
+	/**
+	 * Returns the first node of the placement of the given value in the given cell.
+	 */
+	private int getPlacementNode(int cell, int value)
+	{
+		return constraintCount + 1 + (cell * size + value - 1) * 4;
+	}
+}
@@ -0,0 +1,463 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Depth-First Search solver with constraint propagation. Before and after every decision, naked
+ * singles (cells with one candidate left) and hidden singles (values with one possible cell left
+ * in a row, column or square) are filled in until neither remains. The search then branches on the
+ * empty cell with the fewest candidates, trying its values in ascending order.
+ * <p>
+ * Every assignment is recorded on a trail so that a failed decision is undone by unwinding the
+ * trail back to the point where the decision was made. Occupancy is tracked in bitmasks, and all
+ * scratch state is allocated once per solver so repeated solves do not allocate.
+ * <p>
+ * Counting solutions runs the same search, treating each solution found as a dead end until the
+ * limit is reached. The node budget is checked before every value tried at a branching point,
+ * while the timeout and cancellation token are polled periodically.
+ */
+class DepthFirstSolver implements SudokuSolver
+{
+	private static final int LIMIT_POLL_MASK = 0xFF;
+
+	static final int NO_CELL = -1;
+	static final int CONTRADICTION = -2;
+
+	private final SudokuLayout layout;
+	private final int cellCount;
+	private final int allValues;
+	private final int[] cellRow;
+	private final int[] cellColumn;
+	private final int[] cellSquare;
+	private final int[][] unitCells;
+
+	private byte[] grid;
+	private final int[] rowMasks;
+	private final int[] columnMasks;
+	private final int[] squareMasks;
+
+	private final int[] trail;
+	private int trailSize;
+
+	private final int[] decisionCells;
+	private final int[] decisionCandidates;
+	private final int[] decisionTrailSizes;
+
+	private SolveLimits limits = SolveLimits.NONE;
+	private long deadlineNanos;
+	private SolveResult.Status stopReason;
+	private long nodesVisited;
+	private long backtracks;
+	private long propagationSteps;
+
+	/**
+	 * Creates a solver for standard 9x9 grids.
+	 */
+	DepthFirstSolver()
+	{
+		this(SudokuLayout.STANDARD);
+	}
+
+	/**
+	 * Creates a solver for grids of the given layout.
+	 */
+	DepthFirstSolver(SudokuLayout layout)
+	{
+		this.layout = layout;
+		this.cellCount = layout.cellCount;
+		this.allValues = layout.allValues;
+		this.cellRow = layout.cellRow;
+		this.cellColumn = layout.cellColumn;
+		this.cellSquare = layout.cellSquare;
+		this.unitCells = layout.unitCells;
+
+		rowMasks = new int[layout.size];
+		columnMasks = new int[layout.size];
+		squareMasks = new int[layout.size];
+		trail = new int[cellCount];
+		decisionCells = new int[cellCount];
+		decisionCandidates = new int[cellCount];
+		decisionTrailSizes = new int[cellCount];
+	}
+
+	/**
+	 * Returns the layout of the grids this solver accepts.
+	 */
+	SudokuLayout getLayout()
+	{
+		return layout;
+	}
+
+	/**
+	 * Loads the given grid and fills in its singles in place, without branching.
+	 *
+	 * @return The cell the search would branch on next, NO_CELL if propagation completed the grid,
+	 * or CONTRADICTION if the grid has no solution. In the latter case the grid is left unmodified.
+	 */
+	int propagateOnly(byte[] grid)
+	{
+		if (!loadGrid(grid))
+		{
+			return CONTRADICTION;
+		}
+		if (!propagate())
+		{
+			undo(0);
+			return CONTRADICTION;
+		}
+
+		return chooseCell();
+	}
+
+	@Override
+	public boolean solve(byte[] grid)
+	{
+		startSearch(SolveLimits.NONE, 0L);
+		return loadGrid(grid) && search(1) == 1;
+	}
+
+	@Override
+	public SolveResult solve(byte[] grid, SolveLimits limits)
+	{
+		long startNanos = System.nanoTime();
+		startSearch(limits, startNanos);
+		boolean solved = loadGrid(grid) && search(1) == 1;
+
+		SolveResult.Status status = solved ? SolveResult.Status.SOLVED : stopReason != null ? stopReason : SolveResult.Status.UNSOLVABLE;
+		return new SolveResult(status, nodesVisited, backtracks, propagationSteps, System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public int countSolutions(byte[] grid, int limit)
+	{
+		return countSolutions(grid, limit, SolveLimits.NONE);
+	}
+
+	/**
+	 * Counts the solutions of the given grid, stopping as soon as the given limit or any of the
+	 * given search limits is reached.
+	 *
+	 * @return The number of solutions found before stopping. The grid is left unmodified.
+	 */
+	int countSolutions(byte[] grid, int limit, SolveLimits limits)
+	{
+		startSearch(limits, System.nanoTime());
+		if (limit <= 0 || !loadGrid(grid))
+		{
+			return 0;
+		}
+
+		int solutions = search(limit);
+		undo(0);
+		return solutions;
+	}
+
+	/**
+	 * Resets the counters and applies the given limits to the next search.
+	 */
+	private void startSearch(SolveLimits limits, long startNanos)
+	{
+		this.limits = limits;
+		this.deadlineNanos = startNanos + limits.getTimeoutNanos();
+		stopReason = null;
+		nodesVisited = 0;
+		backtracks = 0;
+		propagationSteps = 0;
+	}
+
+	/**
+	 * Checks the limits of the current search before another node is visited.
+	 *
+	 * @return The reason the search has to stop, or null if it may continue.
+	 */
+	private SolveResult.Status checkLimits()
+	{
+		if (nodesVisited >= limits.getMaxNodes())
+		{
+			return SolveResult.Status.NODE_LIMIT_REACHED;
+		}
+
+		if ((nodesVisited & LIMIT_POLL_MASK) == 0)
+		{
+			CancellationToken cancellationToken = limits.getCancellationToken();
+			if (cancellationToken != null && cancellationToken.isCancelled())
+			{
+				return SolveResult.Status.CANCELLED;
+			}
+			if (limits.getTimeoutNanos() > 0 && System.nanoTime() - deadlineNanos >= 0)
+			{
+				return SolveResult.Status.TIMED_OUT;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Searches the loaded grid until the given number of solutions has been found. A found solution
+	 * is treated as a dead end until the limit is reached, so the search carries on from there. If
+	 * a limit stops the search, the reason is stored in stopReason.
+	 *
+	 * @return The number of solutions found. If the solution limit was reached, the grid holds the
+	 * last solution found. Otherwise, the grid is left unmodified.
+	 */
+	private int search(int limit)
+	{
+		int solutions = 0;
+		int depth = 0;
+		boolean consistent = propagate();
+		while (true)
+		{
+			if (consistent)
+			{
+				int cell = chooseCell();
+				if (cell == NO_CELL)
+				{
+					if (++solutions == limit)
+					{
+						return solutions;
+					}
+				}
+				else
+				{
+					decisionCells[depth] = cell;
+					decisionCandidates[depth] = getCandidates(cell);
+					decisionTrailSizes[depth] = trailSize;
+					depth++;
+				}
+			}
+
+			// Try the next value of the innermost decision which has one left
+			consistent = false;
+			while (!consistent)
+			{
+				if (depth == 0)
+				{
+					undo(0);
+					return solutions;
+				}
+
+				int decision = depth - 1;
+				undo(decisionTrailSizes[decision]);
+				int candidates = decisionCandidates[decision];
+				if (candidates == 0)
+				{
+					backtracks++;
+					depth--;
+					continue;
+				}
+
+				stopReason = checkLimits();
+				if (stopReason != null)
+				{
+					undo(0);
+					return solutions;
+				}
+
+				nodesVisited++;
+				int bit = candidates & -candidates;
+				decisionCandidates[decision] = candidates ^ bit;
+				assign(decisionCells[decision], Integer.numberOfTrailingZeros(bit));
+				consistent = propagate();
+			}
+		}
+	}
+
+	/**
+	 * Initializes the occupancy masks from the given grid and clears the trail.
+	 *
+	 * @return Whether or not the filled cells of the grid are consistent with each other.
+	 */
+	private boolean loadGrid(byte[] grid)
+	{
+		this.grid = grid;
+		trailSize = 0;
+		for (int i = 0; i < rowMasks.length; i++)
+		{
+			rowMasks[i] = 0;
+			columnMasks[i] = 0;
+			squareMasks[i] = 0;
+		}
+
+		for (int cell = 0; cell < cellCount; cell++)
+		{
+			int value = grid[cell];
+			if (value == 0)
+			{
+				continue;
+			}
+
+			if ((getCandidates(cell) & (1 << value)) == 0)
+			{
+				return false;
+			}
+
+			placeValue(cell, value);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Repeatedly fills naked and hidden singles until no more can be found.
+	 *
+	 * @return Whether or not the grid is still consistent. If not, some empty cell has no
+	 * candidates or some value has nowhere left to go in one of its units.
+	 */
+	private boolean propagate()
+	{
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+
+			// Naked singles
+			for (int cell = 0; cell < cellCount; cell++)
+			{
+				if (grid[cell] != 0)
+				{
+					continue;
+				}
+
+				int candidates = getCandidates(cell);
+				if (candidates == 0)
+				{
+					return false;
+				}
+				if ((candidates & (candidates - 1)) == 0)
+				{
+					assign(cell, Integer.numberOfTrailingZeros(candidates));
+					propagationSteps++;
+					changed = true;
+				}
+			}
+
+			// Hidden singles
+			for (int unit = 0; unit < unitCells.length; unit++)
+			{
+				int[] cells = unitCells[unit];
+				int seen = 0;
+				int seenTwice = 0;
+				int placed = 0;
+				for (int cell : cells)
+				{
+					int value = grid[cell];
+					if (value != 0)
+					{
+						placed |= 1 << value;
+						continue;
+					}
+
+					int candidates = getCandidates(cell);
+					seenTwice |= seen & candidates;
+					seen |= candidates;
+				}
+
+				if ((placed | seen) != allValues)
+				{
+					return false;
+				}
+
+				int singles = seen & ~seenTwice;
+				while (singles != 0)
+				{
+					int bit = singles & -singles;
+					singles ^= bit;
+					for (int cell : cells)
+					{
+						if (grid[cell] == 0 && (getCandidates(cell) & bit) != 0)
+						{
+							assign(cell, Integer.numberOfTrailingZeros(bit));
+							propagationSteps++;
+							changed = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the empty cell with the fewest candidates, or NO_CELL if the grid is full.
+	 */
+	private int chooseCell()
+	{
+		int bestCell = NO_CELL;
+		int bestCount = Integer.MAX_VALUE;
+		for (int cell = 0; cell < cellCount; cell++)
+		{
+			if (grid[cell] != 0)
+			{
+				continue;
+			}
+
+			int count = Integer.bitCount(getCandidates(cell));
+			if (count < bestCount)
+			{
+				bestCell = cell;
+				bestCount = count;
+				if (count <= 2)
+				{
+					break;
+				}
+			}
+		}
+
+		return bestCell;
+	}
+
+	/**
+	 * Sets the given cell to the given value and records the assignment on the trail.
+	 */
+	private void assign(int cell, int value)
+	{
+		grid[cell] = (byte) value;
+		placeValue(cell, value);
+		trail[trailSize++] = cell;
+	}
+
+	/**
+	 * Clears every assignment made after the trail reached the given size.
+	 */
+	private void undo(int targetTrailSize)
+	{
+		while (trailSize > targetTrailSize)
+		{
+			int cell = trail[--trailSize];
+			removeValue(cell, grid[cell]);
+			grid[cell] = 0;
+		}
+	}
+
+	/**
+	 * Returns the bitmask of values which can legally be placed in the given cell of the grid
+	 * currently loaded. Bit n is set when value n is not yet used in the cell's row, column or square.
+	 */
+	int getCandidates(int cell)
+	{
+		return ~(rowMasks[cellRow[cell]] | columnMasks[cellColumn[cell]] | squareMasks[cellSquare[cell]]) & allValues;
+	}
+
+	/**
+	 * Marks the given value as used in the row, column and square of the given cell.
+	 */
+	private void placeValue(int cell, int value)
+	{
+		int bit = 1 << value;
+		rowMasks[cellRow[cell]] |= bit;
+		columnMasks[cellColumn[cell]] |= bit;
+		squareMasks[cellSquare[cell]] |= bit;
+	}
+
+	/**
+	 * Marks the given value as no longer used in the row, column and square of the given cell.
+	 */
+	private void removeValue(int cell, int value)
+	{
+		int bit = ~(1 << value);
+		rowMasks[cellRow[cell]] &= bit;
+		columnMasks[cellColumn[cell]] &= bit;
+		squareMasks[cellSquare[cell]] &= bit;
+	}
+}
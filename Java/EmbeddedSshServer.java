@@ -0,0 +1,92 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellCommandFactory;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * In-process SSH server for tests, serving SFTP from a directory and running exec commands
+ * through the local shell. Any key is accepted, and clients created by
+ * {@link #createSecureChannelManager()} trust the host key of the server.
+ */
+class EmbeddedSshServer implements AutoCloseable
+{
+	static final String HOST = "127.0.0.1";
+	static final String USERNAME = "pi";
+
+	private final SshServer server;
+
+	/**
+	 * Starts a server on a free local port.
+	 *
+	 * @param sftpRoot          the directory served over SFTP
+	 * @param sftpEventListener notified of every SFTP operation, or null
+	 */
+	EmbeddedSshServer(Path sftpRoot, SftpEventListener sftpEventListener) throws IOException
+	{
+		SftpSubsystemFactory sftpSubsystemFactory = new SftpSubsystemFactory();
+		if (sftpEventListener != null)
+		{
+			sftpSubsystemFactory.addSftpEventListener(sftpEventListener);
+		}
+
+		server = SshServer.setUpDefaultServer();
+		server.setHost(HOST);
+		server.setPort(0);
+		server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+		server.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+		server.setFileSystemFactory(new VirtualFileSystemFactory(sftpRoot.toAbsolutePath()));
+		server.setSubsystemFactories(Collections.singletonList(sftpSubsystemFactory));
+		server.setCommandFactory(ProcessShellCommandFactory.INSTANCE);
+		server.start();
+	}
+
+	int getPort()
+	{
+		return server.getPort();
+	}
+
+	/**
+	 * Creates a client with a new identity, which knows the host key of this server.
+	 */
+	JSch createSecureChannelManager() throws JSchException, IOException, GeneralSecurityException
+	{
+		JSch secureChannelManager = new JSch();
+		KeyPair identity = KeyPair.genKeyPair(secureChannelManager, KeyPair.ECDSA, 256);
+		ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+		identity.writePrivateKey(privateKey);
+		secureChannelManager.addIdentity(USERNAME, privateKey.toByteArray(), identity.getPublicKeyBlob(), null);
+
+		for (java.security.KeyPair hostKey : server.getKeyPairProvider().loadKeys(null))
+		{
+			PublicKey publicKey = hostKey.getPublic();
+			String hostKeyBlob = PublicKeyEntry.toString(publicKey).split(" ")[1];
+			secureChannelManager.getHostKeyRepository().add(new HostKey("[" + HOST + "]:" + getPort(), Base64.getDecoder().decode(hostKeyBlob)), null);
+		}
+
+		return secureChannelManager;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		server.stop(true);
+	}
+}
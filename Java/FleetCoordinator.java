@@ -0,0 +1,328 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import com.jcraft.jsch.JSchException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rolls a release out to a fleet of devices, running the update on many devices at once.
+ * <p>
+ * Devices are updated in waves. The first wave is a small canary, and the rollout halts if any
+ * canary fails or if the failure rate of all devices updated so far exceeds the allowed rate
+ * after any later wave. Devices are updated on a fixed pool of threads, one per SSH session
+ * allowed at once. Progress is logged at a fixed interval.
+ */
+public class FleetCoordinator
+{
+	private static final long PROGRESS_INTERVAL_SECONDS = 10L;
+	private static final long DEFAULT_COMMAND_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(20);
+
+	private final DeviceUpdater deviceUpdater;
+	private final int maxConcurrency;
+	private final int canaryCount;
+	private final int waveSize;
+	private final double maxFailureRate;
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final AtomicInteger runningCount = new AtomicInteger();
+	private final AtomicInteger succeededCount = new AtomicInteger();
+	private final AtomicInteger failedCount = new AtomicInteger();
+	private Log logger;
+
+	/**
+	 * Updates a single device.
+	 */
+	interface DeviceUpdater
+	{
+		/**
+		 * Runs the update on the given device.
+		 *
+		 * @return the exit code of the update, where 0 is success
+		 */
+		int update(FleetDevice device) throws Exception;
+	}
+
+	/**
+	 * Fleet coordinator constructor, updating devices by running the given command on them over SSH.
+	 *
+	 * @param authData       key used to log in to every device
+	 * @param updateCommand  the command which runs the update client on a device
+	 * @param maxConcurrency the most devices updated at once
+	 * @param canaryCount    the number of devices updated before any other
+	 * @param waveSize       the number of devices updated in every later wave
+	 * @param maxFailureRate the fraction of failed devices which halts the rollout
+	 */
+	public FleetCoordinator(UserAuthInfo authData, String updateCommand, int maxConcurrency, int canaryCount, int waveSize, double maxFailureRate) throws JSchException
+	{
+		this(new SshDeviceUpdater(authData, updateCommand, DEFAULT_COMMAND_TIMEOUT_MILLIS), maxConcurrency, canaryCount, waveSize, maxFailureRate);
+	}
+
+	/**
+	 * Fleet coordinator constructor
+	 *
+	 * @param deviceUpdater  updates a single device
+	 * @param maxConcurrency the most devices updated at once
+	 * @param canaryCount    the number of devices updated before any other
+	 * @param waveSize       the number of devices updated in every later wave
+	 * @param maxFailureRate the fraction of failed devices which halts the rollout
+	 */
+	FleetCoordinator(DeviceUpdater deviceUpdater, int maxConcurrency, int canaryCount, int waveSize, double maxFailureRate)
+	{
+		if (maxConcurrency <= 0 || canaryCount < 0 || waveSize <= 0 || maxFailureRate < 0 || maxFailureRate > 1)
+		{
+			throw new IllegalArgumentException("Invalid rollout settings: concurrency " + maxConcurrency + ", canaries " + canaryCount + ", wave size " + waveSize + ", failure rate " + maxFailureRate);
+		}
+
+		this.deviceUpdater = deviceUpdater;
+		this.maxConcurrency = maxConcurrency;
+		this.canaryCount = canaryCount;
+		this.waveSize = waveSize;
+		this.maxFailureRate = maxFailureRate;
+		this.logger = LogFactory.getLog(FleetCoordinator.class);
+	}
+
+	/**
+	 * Outcome of the update of one device.
+	 */
+	public static class DeviceResult
+	{
+		private final FleetDevice device;
+		private final int exitCode;
+		private final Exception failure;
+		private final long elapsedNanos;
+
+		DeviceResult(FleetDevice device, int exitCode, Exception failure, long elapsedNanos)
+		{
+			this.device = device;
+			this.exitCode = exitCode;
+			this.failure = failure;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public FleetDevice getDevice()
+		{
+			return device;
+		}
+
+		/**
+		 * @return the exit code of the update, or -1 if it could not be run to completion
+		 */
+		public int getExitCode()
+		{
+			return exitCode;
+		}
+
+		/**
+		 * @return the exception which stopped the update, or null
+		 */
+		public Exception getFailure()
+		{
+			return failure;
+		}
+
+		public long getElapsedNanos()
+		{
+			return elapsedNanos;
+		}
+
+		public boolean isSucceeded()
+		{
+			return failure == null && exitCode == 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			String outcome = failure != null ? "failed: " + failure : isSucceeded() ? "succeeded" : "failed with exit code " + exitCode;
+			return device + " " + outcome + " in " + TimeUnit.NANOSECONDS.toSeconds(elapsedNanos) + " s";
+		}
+	}
+
+	/**
+	 * Outcome of a rollout.
+	 */
+	public static class RolloutReport
+	{
+		private final List<DeviceResult> results;
+		private final List<FleetDevice> skippedDevices;
+		private final String haltReason;
+
+		RolloutReport(List<DeviceResult> results, List<FleetDevice> skippedDevices, String haltReason)
+		{
+			this.results = Collections.unmodifiableList(results);
+			this.skippedDevices = Collections.unmodifiableList(skippedDevices);
+			this.haltReason = haltReason;
+		}
+
+		/**
+		 * @return the results of every device updated, in inventory order
+		 */
+		public List<DeviceResult> getResults()
+		{
+			return results;
+		}
+
+		/**
+		 * @return the devices left alone because the rollout halted
+		 */
+		public List<FleetDevice> getSkippedDevices()
+		{
+			return skippedDevices;
+		}
+
+		public boolean isHalted()
+		{
+			return haltReason != null;
+		}
+
+		/**
+		 * @return why the rollout halted, or null if it reached every device
+		 */
+		public String getHaltReason()
+		{
+			return haltReason;
+		}
+
+		@Override
+		public String toString()
+		{
+			long failed = results.stream().filter(result -> !result.isSucceeded()).count();
+			return "Rollout " + (isHalted() ? "halted (" + haltReason + ")" : "complete") + ": " + (results.size() - failed) + " succeeded, " + failed + " failed, " + skippedDevices.size() + " skipped";
+		}
+	}
+
+	/**
+	 * Rolls the release out to the given devices, canaries first.
+	 *
+	 * @param devices the devices to be updated, in rollout order
+	 * @return the results of every device updated
+	 */
+	public RolloutReport rollOut(List<FleetDevice> devices) throws InterruptedException
+	{
+		pendingCount.set(devices.size());
+		runningCount.set(0);
+		succeededCount.set(0);
+		failedCount.set(0);
+
+		// Devices mostly wait on their update over SSH, so a thread per session is cheap enough
+		ExecutorService updateExecutor = Executors.newFixedThreadPool(maxConcurrency, runnable -> new Thread(runnable, "rollout-update"));
+		ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "rollout-progress"));
+		progressReporter.scheduleAtFixedRate(() -> logger.info(getProgressSummary()), PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+		List<DeviceResult> results = new ArrayList<>(devices.size());
+		String haltReason = null;
+		try
+		{
+			int from = 0;
+			while (from < devices.size() && haltReason == null)
+			{
+				boolean canaryWave = from == 0 && canaryCount > 0;
+				int to = Math.min(devices.size(), from + (canaryWave ? canaryCount : waveSize));
+				List<DeviceResult> waveResults = updateWave(updateExecutor, devices.subList(from, to));
+				results.addAll(waveResults);
+				from = to;
+
+				long waveFailures = waveResults.stream().filter(result -> !result.isSucceeded()).count();
+				if (canaryWave && waveFailures > 0)
+				{
+					haltReason = waveFailures + " of " + waveResults.size() + " canaries failed";
+				}
+				else if (failedCount.get() > maxFailureRate * results.size())
+				{
+					haltReason = "failure rate " + failedCount.get() + "/" + results.size() + " exceeds " + maxFailureRate;
+				}
+				logger.info((canaryWave ? "Canary wave" : "Wave") + " finished. " + getProgressSummary());
+			}
+		}
+		finally
+		{
+			progressReporter.shutdownNow();
+			updateExecutor.shutdownNow();
+		}
+
+		RolloutReport report = new RolloutReport(results, new ArrayList<>(devices.subList(results.size(), devices.size())), haltReason);
+		logger.info(report);
+		return report;
+	}
+
+	/**
+	 * Updates every device of a wave on the given executor, and waits for all of them.
+	 */
+	private List<DeviceResult> updateWave(ExecutorService executor, List<FleetDevice> wave) throws InterruptedException
+	{
+		List<Future<DeviceResult>> updates = new ArrayList<>(wave.size());
+		for (FleetDevice device : wave)
+		{
+			updates.add(executor.submit(() -> updateDevice(device)));
+		}
+
+		List<DeviceResult> results = new ArrayList<>(wave.size());
+		for (Future<DeviceResult> update : updates)
+		{
+			try
+			{
+				results.add(update.get());
+			}
+			catch (ExecutionException e)
+			{
+				// updateDevice reports every failure in its result
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Updates a device, recording the outcome in the progress counts.
+	 */
+	private DeviceResult updateDevice(FleetDevice device) throws InterruptedException
+	{
+		pendingCount.decrementAndGet();
+		runningCount.incrementAndGet();
+		long startTime = System.nanoTime();
+		DeviceResult result;
+		try
+		{
+			int exitCode = deviceUpdater.update(device);
+			result = new DeviceResult(device, exitCode, null, System.nanoTime() - startTime);
+		}
+		catch (InterruptedException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			result = new DeviceResult(device, -1, e, System.nanoTime() - startTime);
+		}
+		finally
+		{
+			runningCount.decrementAndGet();
+		}
+
+		(result.isSucceeded() ? succeededCount : failedCount).incrementAndGet();
+		if (!result.isSucceeded())
+		{
+			logger.warn("Update of " + result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a one line summary of the progress of the current rollout
+	 */
+	public String getProgressSummary()
+	{
+		return "Rollout progress: " + succeededCount.get() + " succeeded, " + failedCount.get() + " failed, " + runningCount.get() + " running, " + pendingCount.get() + " pending";
+	}
+}
@@ -0,0 +1,156 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the waves of {@link FleetCoordinator#rollOut(List)} with a fake device updater, which
+ * fails the devices whose host is listed.
+ */
+class FleetCoordinatorTest
+{
+	@Test
+	void updatesEveryDeviceWhenNoneFail() throws InterruptedException
+	{
+		FakeUpdater updater = new FakeUpdater();
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 3, 2, 4, 0.1).rollOut(createDevices(11));
+
+		assertFalse(report.isHalted());
+		assertNull(report.getHaltReason());
+		assertEquals(11, report.getResults().size());
+		assertTrue(report.getSkippedDevices().isEmpty());
+		assertEquals(11, updater.updatedHosts.size());
+		for (int i = 0; i < report.getResults().size(); i++)
+		{
+			assertEquals("device" + i, report.getResults().get(i).getDevice().getHost());
+			assertTrue(report.getResults().get(i).isSucceeded());
+		}
+	}
+
+	@Test
+	void haltsAfterFailedCanary() throws InterruptedException
+	{
+		FakeUpdater updater = new FakeUpdater("device1");
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 4, 2, 4, 1.0).rollOut(createDevices(10));
+
+		assertTrue(report.isHalted());
+		assertTrue(report.getHaltReason().contains("canar"), report.getHaltReason());
+		assertEquals(2, report.getResults().size());
+		assertEquals(8, report.getSkippedDevices().size());
+		assertEquals("device2", report.getSkippedDevices().get(0).getHost());
+		assertEquals(2, updater.updatedHosts.size());
+	}
+
+	@Test
+	void haltsWhenFailureRateIsExceeded() throws InterruptedException
+	{
+		// Canaries 0 and 1 pass, the first wave of 2 to 5 has one failure, which is 1/6 of the updated devices
+		FakeUpdater updater = new FakeUpdater("device4");
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 2, 2, 4, 0.1).rollOut(createDevices(14));
+
+		assertTrue(report.isHalted());
+		assertTrue(report.getHaltReason().contains("failure rate"), report.getHaltReason());
+		assertEquals(6, report.getResults().size());
+		assertEquals(8, report.getSkippedDevices().size());
+		assertEquals(6, updater.updatedHosts.size());
+	}
+
+	@Test
+	void continuesWhileFailureRateIsAllowed() throws InterruptedException
+	{
+		FakeUpdater updater = new FakeUpdater("device4");
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 2, 2, 4, 0.2).rollOut(createDevices(14));
+
+		assertFalse(report.isHalted());
+		assertEquals(14, report.getResults().size());
+		assertFalse(report.getResults().get(4).isSucceeded());
+		assertEquals(1, report.getResults().get(4).getExitCode());
+	}
+
+	@Test
+	void countsExceptionAsFailure() throws InterruptedException
+	{
+		FleetCoordinator.DeviceUpdater updater = device ->
+		{
+			throw new IllegalStateException("Connection refused");
+		};
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 2, 1, 4, 1.0).rollOut(createDevices(5));
+
+		assertTrue(report.isHalted());
+		assertEquals(1, report.getResults().size());
+		assertEquals(-1, report.getResults().get(0).getExitCode());
+		assertTrue(report.getResults().get(0).getFailure() instanceof IllegalStateException);
+	}
+
+	@Test
+	void neverUpdatesMoreDevicesThanAllowedAtOnce() throws InterruptedException
+	{
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger mostRunning = new AtomicInteger();
+		FleetCoordinator.DeviceUpdater updater = device ->
+		{
+			mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			Thread.sleep(20);
+			running.decrementAndGet();
+			return 0;
+		};
+		FleetCoordinator.RolloutReport report = new FleetCoordinator(updater, 3, 0, 10, 0.0).rollOut(createDevices(20));
+
+		assertFalse(report.isHalted());
+		assertEquals(20, report.getResults().size());
+		assertTrue(mostRunning.get() <= 3, "Devices updated at once: " + mostRunning.get());
+	}
+
+	@Test
+	void rejectsInvalidSettings()
+	{
+		FleetCoordinator.DeviceUpdater updater = device -> 0;
+		assertThrows(IllegalArgumentException.class, () -> new FleetCoordinator(updater, 0, 1, 1, 0.1));
+		assertThrows(IllegalArgumentException.class, () -> new FleetCoordinator(updater, 1, 1, 0, 0.1));
+		assertThrows(IllegalArgumentException.class, () -> new FleetCoordinator(updater, 1, 1, 1, 1.5));
+	}
+
+	private static List<FleetDevice> createDevices(int count)
+	{
+		List<FleetDevice> devices = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			devices.add(new FleetDevice("pi", "device" + i, 22));
+		}
+
+		return devices;
+	}
+
+	/**
+	 * Device updater which records the devices it updated, and exits with 1 on the given hosts.
+	 */
+	private static class FakeUpdater implements FleetCoordinator.DeviceUpdater
+	{
+		private final Set<String> failingHosts = new HashSet<>();
+		private final Set<String> updatedHosts = Collections.synchronizedSet(new HashSet<>());
+
+		FakeUpdater(String... failingHosts)
+		{
+			Collections.addAll(this.failingHosts, failingHosts);
+		}
+
+		@Override
+		public int update(FleetDevice device)
+		{
+			updatedHosts.add(device.getHost());
+			return failingHosts.contains(device.getHost()) ? 1 : 0;
+		}
+	}
+}
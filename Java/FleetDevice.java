@@ -0,0 +1,151 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A device of the fleet, reached over SSH.
+ */
+public class FleetDevice
+{
+	private static final int DEFAULT_SSH_PORT = 22;
+
+	private final String username;
+	private final String host;
+	private final int port;
+
+	/**
+	 * Fleet device constructor
+	 *
+	 * @param username the user to log in as
+	 * @param host     host name or address of the device
+	 * @param port     SSH port of the device
+	 */
+	public FleetDevice(String username, String host, int port)
+	{
+		this.username = username;
+		this.host = host;
+		this.port = port;
+	}
+
+	public String getUsername()
+	{
+		return username;
+	}
+
+	public String getHost()
+	{
+		return host;
+	}
+
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Reads a device inventory. Every line names one device as {@code [user@]host[:port]}, and
+	 * blank lines and lines starting with '#' are ignored.
+	 *
+	 * @param inventoryFile   the inventory to be read
+	 * @param defaultUsername the user for devices which do not name one
+	 * @return the devices, in inventory order
+	 */
+	public static List<FleetDevice> readInventory(Path inventoryFile, String defaultUsername) throws IOException
+	{
+		List<FleetDevice> devices = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(inventoryFile))
+		{
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+				{
+					continue;
+				}
+
+				try
+				{
+					devices.add(parse(line, defaultUsername));
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw new IOException("Invalid device on line " + lineNumber + " of " + inventoryFile + ": " + line, e);
+				}
+			}
+		}
+
+		return devices;
+	}
+
+	/**
+	 * Parses a device written as {@code [user@]host[:port]}. An IPv6 address is written in
+	 * brackets when it is followed by a port, and may be written bare otherwise.
+	 */
+	static FleetDevice parse(String device, String defaultUsername)
+	{
+		String username = defaultUsername;
+		String host = device;
+		int port = DEFAULT_SSH_PORT;
+
+		int at = host.indexOf('@');
+		if (at >= 0)
+		{
+			username = host.substring(0, at);
+			host = host.substring(at + 1);
+		}
+		String portSuffix = "";
+		if (host.startsWith("["))
+		{
+			int end = host.indexOf(']');
+			if (end < 0)
+			{
+				throw new IllegalArgumentException("Device address has no closing bracket: " + device);
+			}
+			portSuffix = host.substring(end + 1);
+			host = host.substring(1, end);
+			if (!portSuffix.isEmpty() && !portSuffix.startsWith(":"))
+			{
+				throw new IllegalArgumentException("Device must be written as [user@]host[:port]: " + device);
+			}
+		}
+		else if (host.indexOf(':') == host.lastIndexOf(':'))
+		{
+			// A bare host with more than one colon is an IPv6 address without a port
+			int colon = host.indexOf(':');
+			if (colon >= 0)
+			{
+				portSuffix = host.substring(colon);
+				host = host.substring(0, colon);
+			}
+		}
+		if (!portSuffix.isEmpty())
+		{
+			port = Integer.parseInt(portSuffix.substring(1));
+		}
+		if (username.isEmpty() || host.isEmpty() || port <= 0 || port > 65535)
+		{
+			throw new IllegalArgumentException("Device must be written as [user@]host[:port]: " + device);
+		}
+
+		return new FleetDevice(username, host, port);
+	}
+
+	@Override
+	public String toString()
+	{
+		if (port == DEFAULT_SSH_PORT)
+		{
+			return username + "@" + host;
+		}
+
+		return username + "@" + (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port;
+	}
+}
@@ -0,0 +1,55 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the device notation read from fleet inventories by {@link FleetDevice#parse(String, String)}.
+ */
+class FleetDeviceTest
+{
+	@Test
+	void parsesHostNames()
+	{
+		assertDevice("pi", "10.0.0.3", 22, FleetDevice.parse("10.0.0.3", "pi"));
+		assertDevice("admin", "kiosk.local", 22, FleetDevice.parse("admin@kiosk.local", "pi"));
+		assertDevice("admin", "kiosk.local", 2222, FleetDevice.parse("admin@kiosk.local:2222", "pi"));
+	}
+
+	@Test
+	void parsesIpv6Addresses()
+	{
+		assertDevice("pi", "fe80::1", 22, FleetDevice.parse("fe80::1", "pi"));
+		assertDevice("admin", "2001:db8::17", 22, FleetDevice.parse("admin@2001:db8::17", "pi"));
+		assertDevice("pi", "fe80::1", 22, FleetDevice.parse("[fe80::1]", "pi"));
+		assertDevice("admin", "fe80::1", 2222, FleetDevice.parse("admin@[fe80::1]:2222", "pi"));
+	}
+
+	@Test
+	void writesDevicesAsParsed()
+	{
+		assertEquals("pi@fe80::1", FleetDevice.parse("fe80::1", "pi").toString());
+		assertEquals("pi@[fe80::1]:2222", FleetDevice.parse("[fe80::1]:2222", "pi").toString());
+		assertEquals("pi@kiosk.local:2222", FleetDevice.parse("kiosk.local:2222", "pi").toString());
+	}
+
+	@Test
+	void rejectsInvalidDevices()
+	{
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("u@:1", "pi"));
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("kiosk.local:ssh", "pi"));
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("kiosk.local:70000", "pi"));
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("[fe80::1", "pi"));
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("[fe80::1]2222", "pi"));
+		assertThrows(IllegalArgumentException.class, () -> FleetDevice.parse("@kiosk.local", "pi"));
+	}
+
+	private static void assertDevice(String username, String host, int port, FleetDevice device)
+	{
+		assertEquals(username, device.getUsername());
+		assertEquals(host, device.getHost());
+		assertEquals(port, device.getPort());
+	}
+}
@@ -0,0 +1,172 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * List of the files in an update package with their sizes and hashes, published next to
+ * remoteHash.txt so that clients can verify every file as it is unpacked, before the whole
+ * package has arrived.
+ * <p>
+ * The manifest is a text file with one line per file, holding its hash, its size and its name
+ * within the package. Directories are not listed.
+ */
+class PackageEntryManifest
+{
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Package entry manifest constructor
+	 *
+	 * @param entries the files of the package, by name
+	 */
+	PackageEntryManifest(Map<String, Entry> entries)
+	{
+		this.entries = Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * @return the files of the package, by name
+	 */
+	Map<String, Entry> getEntries()
+	{
+		return entries;
+	}
+
+	/**
+	 * A file of a package.
+	 */
+	static class Entry
+	{
+		private final long size;
+		private final String hash;
+
+		Entry(long size, String hash)
+		{
+			this.size = size;
+			this.hash = hash;
+		}
+
+		long getSize()
+		{
+			return size;
+		}
+
+		String getHash()
+		{
+			return hash;
+		}
+	}
+
+	/**
+	 * Creates the manifest of the given package.
+	 *
+	 * @param packageFile the zip file to be listed
+	 */
+	static PackageEntryManifest create(File packageFile) throws IOException
+	{
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		byte[] buffer = new byte[64 * 1024];
+		try (ZipFile zipFile = new ZipFile(packageFile))
+		{
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements())
+			{
+				ZipEntry zipEntry = zipEntries.nextElement();
+				if (zipEntry.isDirectory())
+				{
+					continue;
+				}
+
+				MessageDigest digest = UpdateClient.createPackageDigest();
+				long size = 0;
+				try (InputStream entryInputStream = zipFile.getInputStream(zipEntry))
+				{
+					int read;
+					while ((read = entryInputStream.read(buffer)) != -1)
+					{
+						digest.update(buffer, 0, read);
+						size += read;
+					}
+				}
+				entries.put(zipEntry.getName(), new Entry(size, UpdateClient.toHex(digest.digest())));
+			}
+		}
+
+		return new PackageEntryManifest(entries);
+	}
+
+	/**
+	 * Reads a manifest in the format written by {@link #write(OutputStream)}.
+	 */
+	static PackageEntryManifest read(InputStream inputStream) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().isEmpty())
+			{
+				continue;
+			}
+
+			// The name is last, since it may contain spaces
+			String[] fields = line.split(" ", 3);
+			try
+			{
+				if (fields.length != 3 || entries.put(fields[2], new Entry(Long.parseLong(fields[1]), fields[0])) != null)
+				{
+					throw new IOException("Package entry manifest has an invalid line: " + line);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Package entry manifest has an invalid line: " + line, e);
+			}
+		}
+
+		return new PackageEntryManifest(entries);
+	}
+
+	/**
+	 * Writes this manifest as text.
+	 */
+	void write(OutputStream outputStream) throws IOException
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for (Map.Entry<String, Entry> entry : entries.entrySet())
+		{
+			writer.write(entry.getValue().getHash() + " " + entry.getValue().getSize() + " " + entry.getKey() + "\n");
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes the entry manifest of a package, for use by the publisher.
+	 *
+	 * @param args the package file followed by the manifest file to be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: PackageEntryManifest <package> <manifest>");
+			return;
+		}
+
+		try (OutputStream outputStream = Files.newOutputStream(Paths.get(args[1])))
+		{
+			create(new File(args[0])).write(outputStream);
+		}
+	}
+}
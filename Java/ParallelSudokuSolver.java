@@ -0,0 +1,286 @@
+package com.cwools.plugins.sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Solves a single puzzle using every worker of a {@link ForkJoinPool}. The top levels of the
+ * Depth-First Search tree are expanded into independent subproblems, in the same order the serial
+ * search would visit them, and each subproblem is searched by its own {@link DepthFirstSolver}.
+ * <p>
+ * Once a subproblem is solved, every subproblem after it is cancelled. Subproblems before it keep
+ * running, and the earliest solution wins, so the result is always the one the serial search
+ * would have found. If a subproblem before the winning one stopped at a limit, the serial search
+ * would have stopped there too, so the solve reports that limit and leaves the grid unmodified.
+ * When counting solutions, every subproblem is cancelled once the combined count reaches the limit.
+ * <p>
+ * The timeout and cancellation token of a solve apply to the search as a whole, while the node
+ * budget applies to each subproblem. The counters reported are the totals across subproblems.
+ * Every solve splits its grid with its own solver, so one instance can be shared by concurrent
+ * callers.
+ */
+class ParallelSudokuSolver implements SudokuSolver
+{
+	private static final int SUBPROBLEMS_PER_WORKER = 8;
+	private static final int MAX_SPLIT_DEPTH = 4;
+
+	private final ForkJoinPool pool;
+	private final SudokuLayout layout;
+	private final ThreadLocal<DepthFirstSolver> threadSolvers;
+
+	/**
+	 * Creates a solver for standard 9x9 grids which searches on the given pool.
+	 */
+	ParallelSudokuSolver(ForkJoinPool pool)
+	{
+		this(pool, SudokuLayout.STANDARD);
+	}
+
+	/**
+	 * Creates a solver for grids of the given layout which searches on the given pool.
+	 */
+	ParallelSudokuSolver(ForkJoinPool pool, SudokuLayout layout)
+	{
+		this.pool = pool;
+		this.layout = layout;
+		this.threadSolvers = ThreadLocal.withInitial(() -> new DepthFirstSolver(layout));
+	}
+
+	@Override
+	public SolveResult solve(byte[] grid, SolveLimits limits)
+	{
+		long startNanos = System.nanoTime();
+		List<byte[]> subproblems = split(grid);
+
+		AtomicInteger solvedIndex = new AtomicInteger(Integer.MAX_VALUE);
+		CancellationToken[] cancellationTokens = new CancellationToken[subproblems.size()];
+		AtomicReferenceArray<SolveResult> results = new AtomicReferenceArray<>(subproblems.size());
+		List<RecursiveAction> tasks = new ArrayList<>(subproblems.size());
+		for (int index = 0; index < subproblems.size(); index++)
+		{
+			cancellationTokens[index] = new CancellationToken(limits.getCancellationToken());
+			tasks.add(new SearchTask(subproblems.get(index), index, limits, startNanos, solvedIndex, cancellationTokens, results));
+		}
+		runAll(tasks);
+
+		long nodesVisited = 0;
+		long backtracks = 0;
+		long propagationSteps = 0;
+		SolveResult.Status failure = SolveResult.Status.UNSOLVABLE;
+		for (int index = 0; index < results.length(); index++)
+		{
+			SolveResult result = results.get(index);
+			if (result == null)
+			{
+				continue;
+			}
+
+			nodesVisited += result.getNodesVisited();
+			backtracks += result.getBacktracks();
+			propagationSteps += result.getPropagationSteps();
+			if (index < solvedIndex.get() && result.getStatus() != SolveResult.Status.UNSOLVABLE && failure == SolveResult.Status.UNSOLVABLE)
+			{
+				failure = result.getStatus();
+			}
+		}
+
+		int index = solvedIndex.get();
+		SolveResult.Status status = SolveResult.Status.SOLVED;
+		if (index == Integer.MAX_VALUE || failure != SolveResult.Status.UNSOLVABLE)
+		{
+			status = failure;
+		}
+		else
+		{
+			System.arraycopy(subproblems.get(index), 0, grid, 0, grid.length);
+		}
+
+		return new SolveResult(status, nodesVisited, backtracks, propagationSteps, System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public int countSolutions(byte[] grid, int limit)
+	{
+		if (limit <= 0)
+		{
+			return 0;
+		}
+
+		AtomicInteger solutions = new AtomicInteger();
+		CancellationToken cancellationToken = new CancellationToken();
+		SolveLimits limits = SolveLimits.NONE.withCancellationToken(cancellationToken);
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (byte[] subproblem : split(grid))
+		{
+			tasks.add(new CountTask(subproblem, limit, limits, solutions));
+		}
+		runAll(tasks);
+
+		return Math.min(solutions.get(), limit);
+	}
+
+	/**
+	 * Runs the given tasks on the pool and waits for all of them to finish.
+	 */
+	private void runAll(List<RecursiveAction> tasks)
+	{
+		pool.invoke(new RecursiveAction()
+		{
+			@Override
+			protected void compute()
+			{
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * Expands the search tree of the given grid level by level until there is enough work for every
+	 * worker. Branches which propagation proves unsolvable are dropped.
+	 *
+	 * @return The subproblems in the order the serial search would visit them.
+	 */
+	private List<byte[]> split(byte[] grid)
+	{
+		int target = pool.getParallelism() * SUBPROBLEMS_PER_WORKER;
+		DepthFirstSolver splitter = new DepthFirstSolver(layout);
+		List<byte[]> subproblems = new ArrayList<>();
+		subproblems.add(grid.clone());
+
+		for (int level = 0; level < MAX_SPLIT_DEPTH && subproblems.size() < target; level++)
+		{
+			List<byte[]> expanded = new ArrayList<>();
+			boolean branched = false;
+			for (byte[] subproblem : subproblems)
+			{
+				int cell = splitter.propagateOnly(subproblem);
+				if (cell == DepthFirstSolver.CONTRADICTION)
+				{
+					continue;
+				}
+				if (cell == DepthFirstSolver.NO_CELL)
+				{
+					expanded.add(subproblem);
+					continue;
+				}
+
+				int candidates = splitter.getCandidates(cell);
+				while (candidates != 0)
+				{
+					int bit = candidates & -candidates;
+					candidates ^= bit;
+					byte[] branch = subproblem.clone();
+					branch[cell] = (byte) Integer.numberOfTrailingZeros(bit);
+					expanded.add(branch);
+				}
+				branched = true;
+			}
+
+			subproblems = expanded;
+			if (!branched)
+			{
+				break;
+			}
+		}
+
+		return subproblems;
+	}
+
+	/**
+	 * Searches a single subproblem. Solving it cancels every subproblem after it.
+	 */
+	@SuppressWarnings("serial")
+	private class SearchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] subproblem;
+		private final int index;
+		private final SolveLimits limits;
+		private final long startNanos;
+		private final AtomicInteger solvedIndex;
+		private final CancellationToken[] cancellationTokens;
+		private final AtomicReferenceArray<SolveResult> results;
+
+		SearchTask(byte[] subproblem, int index, SolveLimits limits, long startNanos, AtomicInteger solvedIndex,
+				CancellationToken[] cancellationTokens, AtomicReferenceArray<SolveResult> results)
+		{
+			this.subproblem = subproblem;
+			this.index = index;
+			this.limits = limits;
+			this.startNanos = startNanos;
+			this.solvedIndex = solvedIndex;
+			this.cancellationTokens = cancellationTokens;
+			this.results = results;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (solvedIndex.get() < index)
+			{
+				return;
+			}
+
+			// The timeout covers the whole search, so subproblems started later get what remains of it
+			SolveLimits subproblemLimits = limits.withCancellationToken(cancellationTokens[index]);
+			if (limits.getTimeoutNanos() > 0)
+			{
+				long remainingNanos = limits.getTimeoutNanos() - (System.nanoTime() - startNanos);
+				subproblemLimits = subproblemLimits.withTimeout(Math.max(remainingNanos, 1L), TimeUnit.NANOSECONDS);
+			}
+
+			SolveResult result = threadSolvers.get().solve(subproblem, subproblemLimits);
+			results.set(index, result);
+			if (result.isSolved() && solvedIndex.accumulateAndGet(index, Math::min) == index)
+			{
+				for (int later = index + 1; later < cancellationTokens.length; later++)
+				{
+					cancellationTokens[later].cancel();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the solutions of a single subproblem. Once the combined count reaches the limit, every
+	 * subproblem is cancelled.
+	 */
+	@SuppressWarnings("serial")
+	private class CountTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] subproblem;
+		private final int limit;
+		private final SolveLimits limits;
+		private final AtomicInteger solutions;
+
+		CountTask(byte[] subproblem, int limit, SolveLimits limits, AtomicInteger solutions)
+		{
+			this.subproblem = subproblem;
+			this.limit = limit;
+			this.limits = limits;
+			this.solutions = solutions;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (limits.getCancellationToken().isCancelled())
+			{
+				return;
+			}
+
+			if (solutions.addAndGet(threadSolvers.get().countSolutions(subproblem, limit, limits)) >= limit)
+			{
+				limits.getCancellationToken().cancel();
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.cwools.plugins.sudoku;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds on how much work a single solve may do before giving up: a maximum number of search
+ * nodes, a timeout, and a cancellation token. Instances are immutable, so the same limits can be
+ * shared by any number of solves.
+ */
+final class SolveLimits
+{
+	/**
+	 * Limits which let a solve run to completion.
+	 */
+	static final SolveLimits NONE = new SolveLimits(Long.MAX_VALUE, 0L, null);
+
+	private final long maxNodes;
+	private final long timeoutNanos;
+	private final CancellationToken cancellationToken;
+
+	private SolveLimits(long maxNodes, long timeoutNanos, CancellationToken cancellationToken)
+	{
+		this.maxNodes = maxNodes;
+		this.timeoutNanos = timeoutNanos;
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Returns a copy of these limits which stops after the given number of search nodes.
+	 */
+	SolveLimits withMaxNodes(long maxNodes)
+	{
+		return new SolveLimits(maxNodes, timeoutNanos, cancellationToken);
+	}
+
+	/**
+	 * Returns a copy of these limits which stops once the given amount of time has passed since the
+	 * solve started. A timeout of 0 means no timeout.
+	 */
+	SolveLimits withTimeout(long timeout, TimeUnit unit)
+	{
+		return new SolveLimits(maxNodes, unit.toNanos(timeout), cancellationToken);
+	}
+
+	/**
+	 * Returns a copy of these limits which stops once the given token is cancelled.
+	 */
+	SolveLimits withCancellationToken(CancellationToken cancellationToken)
+	{
+		return new SolveLimits(maxNodes, timeoutNanos, cancellationToken);
+	}
+
+	long getMaxNodes()
+	{
+		return maxNodes;
+	}
+
+	/**
+	 * Returns the timeout in nanoseconds, or 0 if there is none.
+	 */
+	long getTimeoutNanos()
+	{
+		return timeoutNanos;
+	}
+
+	/**
+	 * Returns the cancellation token, or null if there is none.
+	 */
+	CancellationToken getCancellationToken()
+	{
+		return cancellationToken;
+	}
+}
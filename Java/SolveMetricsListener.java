@@ -0,0 +1,13 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Receives the result of every solve performed by a {@link SudokuBoard}, for export to a metrics
+ * pipeline.
+ */
+interface SolveMetricsListener
+{
+	/**
+	 * Called on the solving thread once a solve has finished, whatever its outcome.
+	 */
+	void onSolveFinished(SudokuBoard board, SolveResult result);
+}
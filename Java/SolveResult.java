@@ -0,0 +1,83 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * The outcome of a single solve, along with counters describing how much work the search did.
+ */
+final class SolveResult
+{
+	/**
+	 * How a solve ended.
+	 */
+	enum Status
+	{
+		SOLVED,
+		UNSOLVABLE,
+		NODE_LIMIT_REACHED,
+		TIMED_OUT,
+		CANCELLED
+	}
+
+	private final Status status;
+	private final long nodesVisited;
+	private final long backtracks;
+	private final long propagationSteps;
+	private final long elapsedNanos;
+
+	SolveResult(Status status, long nodesVisited, long backtracks, long propagationSteps, long elapsedNanos)
+	{
+		this.status = status;
+		this.nodesVisited = nodesVisited;
+		this.backtracks = backtracks;
+		this.propagationSteps = propagationSteps;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	Status getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Returns whether or not a solution was found.
+	 */
+	boolean isSolved()
+	{
+		return status == Status.SOLVED;
+	}
+
+	/**
+	 * Returns the number of values tried at branching points.
+	 */
+	long getNodesVisited()
+	{
+		return nodesVisited;
+	}
+
+	/**
+	 * Returns the number of branching points abandoned after every value failed.
+	 */
+	long getBacktracks()
+	{
+		return backtracks;
+	}
+
+	/**
+	 * Returns the number of values filled in by constraint propagation rather than branching.
+	 */
+	long getPropagationSteps()
+	{
+		return propagationSteps;
+	}
+
+	long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SolveResult{" + "status=" + status + ", nodesVisited=" + nodesVisited + ", backtracks=" + backtracks
+				+ ", propagationSteps=" + propagationSteps + ", elapsedNanos=" + elapsedNanos + '}';
+	}
+}
@@ -0,0 +1,119 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates a device by running the update client on it over SSH. The exit code of the update
+ * client is the {@link UpdateStatus} of its check.
+ */
+class SshDeviceUpdater implements FleetCoordinator.DeviceUpdater
+{
+	private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+	private static final long POLL_INTERVAL_MILLIS = 200L;
+
+	private final JSch secureChannelManager;
+	private final String updateCommand;
+	private final long commandTimeoutMillis;
+	private Log logger;
+
+	/**
+	 * SSH device updater constructor
+	 *
+	 * @param authData             key used to log in to every device
+	 * @param updateCommand        the command which runs the update client on a device
+	 * @param commandTimeoutMillis the time after which a device is given up on
+	 */
+	SshDeviceUpdater(UserAuthInfo authData, String updateCommand, long commandTimeoutMillis) throws JSchException
+	{
+		this(createSecureChannelManager(authData), updateCommand, commandTimeoutMillis);
+	}
+
+	/**
+	 * SSH device updater constructor
+	 *
+	 * @param secureChannelManager holds the key used to log in to every device, and the known hosts
+	 * @param updateCommand        the command which runs the update client on a device
+	 * @param commandTimeoutMillis the time after which a device is given up on
+	 */
+	SshDeviceUpdater(JSch secureChannelManager, String updateCommand, long commandTimeoutMillis)
+	{
+		this.secureChannelManager = secureChannelManager;
+		this.updateCommand = updateCommand;
+		this.commandTimeoutMillis = commandTimeoutMillis;
+		this.logger = LogFactory.getLog(SshDeviceUpdater.class);
+	}
+
+	private static JSch createSecureChannelManager(UserAuthInfo authData) throws JSchException
+	{
+		JSch secureChannelManager = new JSch();
+		secureChannelManager.addIdentity(authData.getKeyFilePath(), authData.getPassphrase());
+		secureChannelManager.setKnownHosts("resource/hosts.txt");
+		return secureChannelManager;
+	}
+
+	@Override
+	public int update(FleetDevice device) throws JSchException, IOException, InterruptedException
+	{
+		Session session = secureChannelManager.getSession(device.getUsername(), device.getHost(), device.getPort());
+		try
+		{
+			session.setTimeout(CONNECT_TIMEOUT_MILLIS);
+			session.connect(CONNECT_TIMEOUT_MILLIS);
+
+			ChannelExec channel = (ChannelExec) session.openChannel("exec");
+			channel.setCommand(updateCommand);
+			channel.setInputStream(null);
+			ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+			channel.setErrStream(errorOutput);
+			InputStream outputStream = channel.getInputStream();
+			channel.connect(CONNECT_TIMEOUT_MILLIS);
+
+			// Polling keeps the deadline enforceable. The pool has a thread per session allowed, so waiting holds up no other device
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commandTimeoutMillis);
+			byte[] buffer = new byte[8192];
+			StringBuilder output = new StringBuilder();
+			while (true)
+			{
+				while (outputStream.available() > 0)
+				{
+					int read = outputStream.read(buffer);
+					if (read == -1)
+					{
+						break;
+					}
+					output.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+				}
+				if (channel.isClosed() && outputStream.available() == 0)
+				{
+					break;
+				}
+				if (System.nanoTime() - deadline > 0)
+				{
+					throw new IOException("Update did not finish within " + commandTimeoutMillis + " ms.");
+				}
+				Thread.sleep(POLL_INTERVAL_MILLIS);
+			}
+
+			if (logger.isDebugEnabled())
+			{
+				logger.debug("Output of update on " + device + ":\n" + output + errorOutput.toString(StandardCharsets.UTF_8));
+			}
+			return channel.getExitStatus();
+		}
+		finally
+		{
+			session.disconnect();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link SshDeviceUpdater} and rollouts through it against an in-process SSH server, which
+ * runs the update command in the local shell.
+ */
+class SshDeviceUpdaterTest
+{
+	private static final long COMMAND_TIMEOUT_MILLIS = 5000L;
+
+	@Test
+	void reportsExitCodeOfUpdate() throws Exception
+	{
+		try (EmbeddedSshServer server = new EmbeddedSshServer(Files.createTempDirectory("device"), null))
+		{
+			FleetDevice device = new FleetDevice(EmbeddedSshServer.USERNAME, EmbeddedSshServer.HOST, server.getPort());
+			JSch secureChannelManager = server.createSecureChannelManager();
+			assertEquals(0, new SshDeviceUpdater(secureChannelManager, "true", COMMAND_TIMEOUT_MILLIS).update(device));
+			assertEquals(1, new SshDeviceUpdater(secureChannelManager, "false", COMMAND_TIMEOUT_MILLIS).update(device));
+		}
+	}
+
+	@Test
+	void givesUpOnUpdateAfterTimeout() throws Exception
+	{
+		try (EmbeddedSshServer server = new EmbeddedSshServer(Files.createTempDirectory("device"), null))
+		{
+			FleetDevice device = new FleetDevice(EmbeddedSshServer.USERNAME, EmbeddedSshServer.HOST, server.getPort());
+			SshDeviceUpdater deviceUpdater = new SshDeviceUpdater(server.createSecureChannelManager(), "sleep 30", 500L);
+
+			long startTime = System.nanoTime();
+			assertThrows(IOException.class, () -> deviceUpdater.update(device));
+			assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(10), "Update was given up on after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+		}
+	}
+
+	@Test
+	void failsWhenDeviceIsUnreachable() throws Exception
+	{
+		JSch secureChannelManager;
+		int port;
+		try (EmbeddedSshServer server = new EmbeddedSshServer(Files.createTempDirectory("device"), null))
+		{
+			secureChannelManager = server.createSecureChannelManager();
+			port = server.getPort();
+		}
+
+		FleetDevice device = new FleetDevice(EmbeddedSshServer.USERNAME, EmbeddedSshServer.HOST, port);
+		assertThrows(JSchException.class, () -> new SshDeviceUpdater(secureChannelManager, "true", COMMAND_TIMEOUT_MILLIS).update(device));
+	}
+
+	@Test
+	void rollsOutOverSsh() throws Exception
+	{
+		try (EmbeddedSshServer server = new EmbeddedSshServer(Files.createTempDirectory("device"), null))
+		{
+			FleetDevice device = new FleetDevice(EmbeddedSshServer.USERNAME, EmbeddedSshServer.HOST, server.getPort());
+			JSch secureChannelManager = server.createSecureChannelManager();
+
+			FleetCoordinator.RolloutReport report = new FleetCoordinator(new SshDeviceUpdater(secureChannelManager, "true", COMMAND_TIMEOUT_MILLIS), 2, 1, 2, 0.0)
+					.rollOut(Arrays.asList(device, device, device));
+			assertFalse(report.isHalted());
+			assertEquals(3, report.getResults().size());
+
+			report = new FleetCoordinator(new SshDeviceUpdater(secureChannelManager, "false", COMMAND_TIMEOUT_MILLIS), 2, 1, 2, 0.0)
+					.rollOut(Arrays.asList(device, device, device));
+			assertTrue(report.isHalted());
+			assertEquals(1, report.getResults().size());
+			assertEquals(1, report.getResults().get(0).getExitCode());
+			assertEquals(2, report.getSkippedDevices().size());
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unpacks an update package into a staging directory while it is being downloaded. The bytes of
+ * the package are handed over in order through a bounded queue, and a separate thread unzips
+ * them, so network and disk time overlap. Every file is checked against the entry manifest of
+ * the package as soon as it has been written.
+ * <p>
+ * Handing bytes over never fails the download: if unpacking fails, the rest of the package is no
+ * longer handed over and {@link #finish(Path)} reports the failure instead.
+ */
+class StreamingUnpacker
+{
+	private static final int QUEUE_CAPACITY = 16;
+	private static final long OFFER_TIMEOUT_MILLIS = 100L;
+	private static final byte[] END_OF_PACKAGE = new byte[0];
+
+	private final PackageEntryManifest manifest;
+	private final Path stagingDir;
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final Thread unpackThread;
+	private volatile Exception failure = null;
+	private boolean handOverStopped = false;
+
+	/**
+	 * Streaming unpacker constructor, which starts the unpacking thread.
+	 *
+	 * @param manifest   the files expected in the package
+	 * @param stagingDir the directory to unpack into, replaced if it exists
+	 */
+	StreamingUnpacker(PackageEntryManifest manifest, Path stagingDir) throws IOException
+	{
+		this.manifest = manifest;
+		this.stagingDir = stagingDir.toAbsolutePath().normalize();
+		deleteRecursively(this.stagingDir);
+		Files.createDirectories(this.stagingDir);
+
+		this.unpackThread = new Thread(this::unpack, "package-unpacker");
+		this.unpackThread.setDaemon(true);
+		this.unpackThread.start();
+	}
+
+	/**
+	 * Hands over the next bytes of the package, blocking while the unpacking thread is behind.
+	 */
+	void update(byte[] bytes, int offset, int length)
+	{
+		if (length > 0)
+		{
+			handOver(Arrays.copyOfRange(bytes, offset, offset + length));
+		}
+	}
+
+	/**
+	 * Waits for the whole package to be unpacked and verified, then moves the staging directory
+	 * into place. Must only be called once the package itself has been verified.
+	 *
+	 * @param releaseDir the directory the unpacked package is moved to, replaced if it exists
+	 */
+	void finish(Path releaseDir) throws IOException, InterruptedException
+	{
+		endHandOver();
+		unpackThread.join();
+		if (failure != null)
+		{
+			deleteRecursively(stagingDir);
+			throw new IOException("Unable to unpack package while downloading.", failure);
+		}
+
+		deleteRecursively(releaseDir);
+		Files.move(stagingDir, releaseDir, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Stops unpacking and removes the staging directory.
+	 */
+	void abort() throws InterruptedException
+	{
+		endHandOver();
+		unpackThread.join();
+		try
+		{
+			deleteRecursively(stagingDir);
+		}
+		catch (IOException e)
+		{
+			// The staging directory is replaced by the next attempt anyway
+		}
+	}
+
+	/**
+	 * Tells the unpacking thread that the package is complete, or interrupts it if it can no
+	 * longer be told.
+	 */
+	private void endHandOver()
+	{
+		handOver(END_OF_PACKAGE);
+		if (handOverStopped)
+		{
+			unpackThread.interrupt();
+		}
+	}
+
+	/**
+	 * Queues a chunk for the unpacking thread, unless the thread has stopped.
+	 */
+	private void handOver(byte[] chunk)
+	{
+		try
+		{
+			while (!handOverStopped && !chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+			{
+				// The unpacking thread has failed if it stopped taking chunks, and finish will report why
+				handOverStopped = !unpackThread.isAlive();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			handOverStopped = true;
+		}
+	}
+
+	/**
+	 * Unzips the package from the queue into the staging directory, checking every file against the manifest.
+	 */
+	private void unpack()
+	{
+		InputStream packageInputStream = new ChunkInputStream();
+		try
+		{
+			ZipInputStream zipInputStream = new ZipInputStream(packageInputStream);
+			Set<String> unpackedEntries = new HashSet<>();
+			byte[] buffer = new byte[64 * 1024];
+			ZipEntry zipEntry;
+			while ((zipEntry = zipInputStream.getNextEntry()) != null)
+			{
+				Path target = stagingDir.resolve(zipEntry.getName()).normalize();
+				if (!target.startsWith(stagingDir))
+				{
+					throw new IOException("Package entry is outside of the package: " + zipEntry.getName());
+				}
+				if (zipEntry.isDirectory())
+				{
+					Files.createDirectories(target);
+					continue;
+				}
+
+				PackageEntryManifest.Entry expected = manifest.getEntries().get(zipEntry.getName());
+				if (expected == null || !unpackedEntries.add(zipEntry.getName()))
+				{
+					throw new IOException("Package entry is not in the manifest: " + zipEntry.getName());
+				}
+
+				Files.createDirectories(target.getParent());
+				MessageDigest digest = UpdateClient.createPackageDigest();
+				long size = 0;
+				try (OutputStream entryOutputStream = Files.newOutputStream(target))
+				{
+					int read;
+					while ((read = zipInputStream.read(buffer)) != -1)
+					{
+						digest.update(buffer, 0, read);
+						entryOutputStream.write(buffer, 0, read);
+						size += read;
+					}
+				}
+				if (size != expected.getSize() || !expected.getHash().equalsIgnoreCase(UpdateClient.toHex(digest.digest())))
+				{
+					throw new IOException("Package entry does not match the manifest: " + zipEntry.getName());
+				}
+			}
+
+			if (unpackedEntries.size() != manifest.getEntries().size())
+			{
+				throw new IOException("Package is missing " + (manifest.getEntries().size() - unpackedEntries.size()) + " entries of the manifest.");
+			}
+
+			// The central directory follows the entries, and has to be taken for the download to finish
+			while (packageInputStream.read(buffer) != -1)
+			{
+				// Only the entries are unpacked
+			}
+		}
+		catch (Exception e)
+		{
+			failure = e;
+		}
+	}
+
+	/**
+	 * Reads the chunks handed over to the unpacking thread, up to the end of the package.
+	 */
+	private class ChunkInputStream extends InputStream
+	{
+		private byte[] chunk = END_OF_PACKAGE;
+		private int position = 0;
+		private boolean ended = false;
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			if (length == 0)
+			{
+				return 0;
+			}
+
+			while (position == chunk.length)
+			{
+				if (ended)
+				{
+					return -1;
+				}
+
+				try
+				{
+					chunk = chunks.take();
+				}
+				catch (InterruptedException e)
+				{
+					throw new InterruptedIOException("Interrupted while waiting for the package.");
+				}
+				position = 0;
+				ended = chunk == END_OF_PACKAGE;
+			}
+
+			int count = Math.min(length, chunk.length - position);
+			System.arraycopy(chunk, position, bytes, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+		}
+	}
+
+	/**
+	 * Deletes the given file or directory tree, if it exists.
+	 */
+	static void deleteRecursively(Path path) throws IOException
+	{
+		if (!Files.exists(path))
+		{
+			return;
+		}
+
+		try (Stream<Path> paths = Files.walk(path))
+		{
+			for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(file);
+			}
+		}
+	}
+}
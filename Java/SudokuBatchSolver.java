@@ -0,0 +1,121 @@
+package com.cwools.plugins.sudoku;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Solves large numbers of puzzles in parallel on a {@link ForkJoinPool}. Puzzles are given as flat
+ * grids in the same format used by {@link SudokuSolver}, so no widgets or boards need to be built.
+ * <p>
+ * The input is split recursively into ranges which are solved sequentially by whichever worker
+ * picks them up. Each worker thread keeps its own solver, so solver scratch state is reused across
+ * every puzzle that thread solves.
+ */
+class SudokuBatchSolver
+{
+	private static final int SPLIT_THRESHOLD = 8;
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<SudokuSolver> threadSolvers;
+
+	/**
+	 * Creates a batch solver which runs on the given pool using Depth-First Search solvers.
+	 */
+	SudokuBatchSolver(ForkJoinPool pool)
+	{
+		this(pool, DepthFirstSolver::new);
+	}
+
+	/**
+	 * Creates a batch solver which runs on the given pool, creating one solver per worker thread
+	 * from the given factory.
+	 */
+	SudokuBatchSolver(ForkJoinPool pool, Supplier<SudokuSolver> solverFactory)
+	{
+		this.pool = pool;
+		this.threadSolvers = ThreadLocal.withInitial(solverFactory);
+	}
+
+	/**
+	 * Solves every given puzzle. The puzzles themselves are not modified.
+	 *
+	 * @return The solutions in input order, with null in place of any puzzle which has no solution.
+	 */
+	List<byte[]> solveAll(List<byte[]> puzzles)
+	{
+		byte[][] solutions = new byte[puzzles.size()][];
+		solveAll(puzzles, (index, solution) -> solutions[index] = solution);
+
+		List<byte[]> results = new ArrayList<>(solutions.length);
+		Collections.addAll(results, solutions);
+		return results;
+	}
+
+	/**
+	 * Solves every given puzzle, handing each result to the given listener as soon as it is
+	 * available. The listener is called from the pool's worker threads, in no particular order.
+	 * Returns once every puzzle has been handled. The puzzles themselves are not modified.
+	 */
+	void solveAll(List<byte[]> puzzles, SolutionListener listener)
+	{
+		pool.invoke(new SolveRangeTask(puzzles, listener, 0, puzzles.size()));
+	}
+
+	/**
+	 * Receives the results of a batch as they complete.
+	 */
+	interface SolutionListener
+	{
+		/**
+		 * Called once for every puzzle in the batch.
+		 *
+		 * @param index    The position of the puzzle in the batch.
+		 * @param solution The solved grid, or null if the puzzle has no solution.
+		 */
+		void onSolved(int index, byte[] solution);
+	}
+
+	/**
+	 * Solves a contiguous range of a batch, splitting it in half while it is above the threshold.
+	 */
+	@SuppressWarnings("serial")
+	private class SolveRangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<byte[]> puzzles;
+		private final SolutionListener listener;
+		private final int from;
+		private final int to;
+
+		SolveRangeTask(List<byte[]> puzzles, SolutionListener listener, int from, int to)
+		{
+			this.puzzles = puzzles;
+			this.listener = listener;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > SPLIT_THRESHOLD)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SolveRangeTask(puzzles, listener, from, middle), new SolveRangeTask(puzzles, listener, middle, to));
+				return;
+			}
+
+			SudokuSolver solver = threadSolvers.get();
+			for (int index = from; index < to; index++)
+			{
+				byte[] grid = puzzles.get(index).clone();
+				listener.onSolved(index, solver.solve(grid) ? grid : null);
+			}
+		}
+	}
+}
@@ -3,244 +3,553 @@ package com.cwools.plugins.sudoku;
 import lombok.extern.slf4j.Slf4j;
 import com.cwools.widgets.WidgetItem;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 
 /**
- * Representation of a Sudoku puzzle. Contains a Depth-First Search Bruteforce algorithm
- * to solve the puzzle.
+ * Representation of a Sudoku puzzle. Solving is delegated to a {@link SudokuSolver}, which
+ * defaults to a Depth-First Search Bruteforce algorithm.
+ * <p>
+ * Cell values are stored in a flat array in row-major order alongside a bitset of the fixed
+ * cells, and solvers work on that array directly. {@link SudokuCell} views are only created
+ * when the widget layer first asks for one, and are reused after that. Boards are 9x9 by
+ * default, but any {@link SudokuLayout} can be chosen at construction.
+ * <p>
+ * 9x9 boards can share a {@link SudokuSolutionCache}, which is checked for the canonical form of
+ * the board before searching whenever the cache expects that to pay off. Every solve reports a
+ * {@link SolveResult}, which is logged and passed to the configured {@link SolveMetricsListener}.
+ * <p>
+ * While a session is running, the board can be edited through deltas: a value entered in a cell,
+ * a cell cleared, or a clue added. The given values are kept apart from the solution, and each
+ * delta only invalidates the solution if the solution no longer satisfies the changed cell, so
+ * most edits need no search at all. Otherwise the rest of the solution seeds the next search: only
+ * the cells sharing a row, column or square with a changed cell are cleared and solved again, and
+ * the board is only solved from its given values if the surviving cells admit no solution.
+ * Deltas are recorded on a trail and can be undone in reverse order.
  */
 @Slf4j
 public class SudokuBoard
 {
-	private static final int SIZE = 9;
-	private static final int SQUARE_SIZE = 3;
+	private final SudokuLayout layout;
+	private final byte[] cellValues;
+	private final byte[] givenValues;
+	private final BitSet fixedCells;
+	private final WidgetItem[] fixedItems;
+	private SudokuSolver solver;
+	private SudokuSolutionCache solutionCache;
+	private SolveMetricsListener metricsListener;
+	private boolean solutionValid;
+	// Whether the values shown are the surviving cells of an invalidated solution rather than the given values
+	private boolean seeded;
+	private SudokuCell[] cellViews;
+	// Invariant of the board as of its latest lookup in the solution cache
+	private long cacheInvariant;
 
-	private SudokuCell[][] boardData;
+	// Each delta is packed as its cell index, whether the cell was fixed and the value it had before
+	private int[] deltaTrail = new int[16];
+	private int deltaCount;
 
 	/**
-	 * Creates a new board in the default state determined from the given WidgetItems.
+	 * Creates a new 9x9 board in the default state determined from the given WidgetItems.
 	 */
 	SudokuBoard(Collection<WidgetItem> initialData)
 	{
-		boardData = new SudokuCell[SIZE][SIZE];
-		for (WidgetItem cell : initialData)
+		this(initialData, SudokuLayout.STANDARD);
+	}
+
+	/**
+	 * Creates a new board of the given layout in the default state determined from the given
+	 * WidgetItems.
+	 */
+	SudokuBoard(Collection<WidgetItem> initialData, SudokuLayout layout)
+	{
+		this.layout = layout;
+		this.cellValues = new byte[layout.cellCount];
+		this.fixedCells = new BitSet(layout.cellCount);
+		this.fixedItems = new WidgetItem[layout.cellCount];
+		this.solver = new DepthFirstSolver(layout);
+
+		for (WidgetItem item : initialData)
 		{
-			int index = cell.getIndex();
-			int row = index / SIZE;
-			int column = index % SIZE;
-			boardData[row][column] = new SudokuCell(cell, row, column);
+			int index = item.getIndex();
+			SudokuCell cell = new SudokuCell(item, layout.cellRow[index], layout.cellColumn[index]);
+			if (!cell.isMutable())
+			{
+				fixedCells.set(index);
+				fixedItems[index] = item;
+				cellValues[index] = (byte) cell.getValue();
+			}
 		}
 
-		reset();
+		this.givenValues = cellValues.clone();
 	}
 
 	/**
-	 * Resets the board to its default state.
+	 * Creates a new board of the given layout whose fixed cells are the non-zero values of the given
+	 * grid, without any backing WidgetItems.
 	 */
-	private void reset()
+	private SudokuBoard(SudokuLayout layout, byte[] clues)
 	{
-		for (int rowIndex = 0; rowIndex < SIZE; rowIndex++)
+		this.layout = layout;
+		this.cellValues = clues;
+		this.givenValues = clues.clone();
+		this.fixedCells = new BitSet(layout.cellCount);
+		this.fixedItems = null;
+		this.solver = new DepthFirstSolver(layout);
+
+		for (int index = 0; index < layout.cellCount; index++)
 		{
-			SudokuCell[] row = boardData[rowIndex];
-			for (int colIndex = 0; colIndex < SIZE; colIndex++)
+			if (clues[index] != 0)
 			{
-				SudokuCell cell = row[colIndex];
-				if (cell == null || cell.isMutable())
-				{
-					boardData[rowIndex][colIndex] = new SudokuCell(rowIndex, colIndex);
-				}
+				fixedCells.set(index);
 			}
 		}
 	}
 
 	/**
-	 * Solves the puzzle using a Depth First Search (DFS) Bruteforce algorithm.
+	 * Creates a new 9x9 board from an 81 character puzzle string in row-major order, where the digits
+	 * 1 to 9 are clues and '.' or '0' is an empty cell. The board is not backed by any WidgetItems,
+	 * so its cells are plain values.
+	 *
+	 * @throws IllegalArgumentException If the string is not a puzzle in that format.
 	 */
-	void solve()
+	static SudokuBoard fromString(String puzzle)
 	{
-		SudokuCell curCell = null;
-		while ((curCell = getNextEmptyCell(curCell)) != null)
+		SudokuLayout layout = SudokuLayout.STANDARD;
+		if (puzzle.length() != layout.cellCount)
 		{
-			while (!validMoveExists(curCell))
+			throw new IllegalArgumentException("Expected " + layout.cellCount + " characters but got " + puzzle.length());
+		}
+
+		byte[] clues = new byte[layout.cellCount];
+		for (int index = 0; index < clues.length; index++)
+		{
+			char c = puzzle.charAt(index);
+			if (c >= '1' && c <= '9')
+			{
+				clues[index] = (byte) (c - '0');
+			}
+			else if (c != '.' && c != '0')
 			{
-				curCell = getPrevMutableCell(curCell);
+				throw new IllegalArgumentException("Unexpected character '" + c + "' at index " + index);
 			}
 		}
+
+		return new SudokuBoard(layout, clues);
+	}
+
+	/**
+	 * Resets the board to its default state, clearing the solution so that only the clues and the
+	 * values entered through deltas remain.
+	 */
+	void reset()
+	{
+		System.arraycopy(givenValues, 0, cellValues, 0, cellValues.length);
+		solutionValid = false;
+		seeded = false;
 	}
 
 	/**
-	 * Returns the next empty cell occurrence after curCell, or null if none exists.
+	 * Enters the given value in the mutable cell at the given coordinates.
+	 *
+	 * @throws IllegalArgumentException If the cell is a clue or the value is out of range.
+	 */
+	void setCellValue(int row, int column, int value)
+	{
+		int index = getMutableIndex(row, column);
+		checkValue(value);
+		applyDelta(index, value, false);
+	}
+
+	/**
+	 * Clears the value entered in the mutable cell at the given coordinates.
+	 *
+	 * @throws IllegalArgumentException If the cell is a clue.
+	 */
+	void clearCell(int row, int column)
+	{
+		applyDelta(getMutableIndex(row, column), 0, false);
+	}
+
+	/**
+	 * Turns the mutable cell at the given coordinates into a clue of the given value.
+	 *
+	 * @throws IllegalArgumentException If the cell is already a clue or the value is out of range.
+	 */
+	void addClue(int row, int column, int value)
+	{
+		int index = getMutableIndex(row, column);
+		checkValue(value);
+		applyDelta(index, value, true);
+	}
+
+	/**
+	 * Reverts the most recent delta which has not been undone yet.
+	 *
+	 * @return Whether or not there was a delta to undo.
 	 */
-	private SudokuCell getNextEmptyCell(SudokuCell curCell)
+	boolean undo()
 	{
-		int curRow = 0;
-		int curCol = -1;
-		if (curCell != null)
+		if (deltaCount == 0)
 		{
-			curRow = curCell.getRow();
-			curCol = curCell.getColumn();
+			return false;
 		}
 
-		if (curCol == SIZE - 1)
+		int delta = deltaTrail[--deltaCount];
+		int index = delta >>> 16;
+		fixedCells.set(index, (delta & 0x100) != 0);
+		givenValues[index] = (byte) (delta & 0xFF);
+		onGivenValueChanged(index);
+		return true;
+	}
+
+	/**
+	 * Returns the index of the cell at the given coordinates, which must not be a clue.
+	 */
+	private int getMutableIndex(int row, int column)
+	{
+		int index = row * layout.size + column;
+		if (fixedCells.get(index))
 		{
-			if (curRow == SIZE - 1)
-			{
-				return null;
-			}
+			throw new IllegalArgumentException("Cell (" + row + ", " + column + ") is a clue");
+		}
 
-			curRow++;
-			curCol = 0;
+		return index;
+	}
+
+	/**
+	 * Checks that the given value can be placed in a cell of this board's layout.
+	 */
+	private void checkValue(int value)
+	{
+		if (value < 1 || value > layout.size)
+		{
+			throw new IllegalArgumentException("Value " + value + " is not between 1 and " + layout.size);
 		}
-		else
+	}
+
+	/**
+	 * Records the current state of the given cell on the trail and replaces it with the given value.
+	 */
+	private void applyDelta(int index, int value, boolean fixed)
+	{
+		if (deltaCount == deltaTrail.length)
 		{
-			curCol++;
+			deltaTrail = Arrays.copyOf(deltaTrail, deltaCount * 2);
 		}
 
-		for (int row = curRow; row < SIZE; row++)
+		deltaTrail[deltaCount++] = index << 16 | (fixedCells.get(index) ? 0x100 : 0) | givenValues[index];
+		fixedCells.set(index, fixed);
+		givenValues[index] = (byte) value;
+		onGivenValueChanged(index);
+	}
+
+	/**
+	 * Updates the displayed values after the given value of a cell changed. The solution already
+	 * satisfied every other given value, so it stays valid unless it disagrees with this cell. If
+	 * it does, the solution is kept as the seed of the next search, except for the cells it could
+	 * conflict with.
+	 */
+	private void onGivenValueChanged(int index)
+	{
+		int value = givenValues[index];
+		if (solutionValid && (value == 0 || value == cellValues[index]))
+		{
+			return;
+		}
+
+		cellValues[index] = (byte) value;
+		if (solutionValid || seeded)
+		{
+			solutionValid = false;
+			seeded = true;
+			clearPeers(index);
+		}
+	}
+
+	/**
+	 * Clears every cell without a given value in the row, column and square of the given cell.
+	 */
+	private void clearPeers(int index)
+	{
+		int[][] units = {layout.unitCells[layout.cellRow[index]], layout.unitCells[layout.size + layout.cellColumn[index]],
+				layout.unitCells[layout.size * 2 + layout.cellSquare[index]]};
+		for (int[] unit : units)
 		{
-			for (int col = curCol; col < SIZE; col++)
+			for (int cell : unit)
 			{
-				SudokuCell nextCell = getCell(row, col);
-				if (nextCell.isMutable() && nextCell.isEmpty())
+				if (givenValues[cell] == 0)
 				{
-					return nextCell;
+					cellValues[cell] = 0;
 				}
 			}
-
-			curCol = 0;
 		}
+	}
+
+	/**
+	 * Sets the solver used by {@link #solve()}. The solver must have been created for this board's layout.
+	 */
+	void setSolver(SudokuSolver solver)
+	{
+		this.solver = solver;
+	}
 
-		return null;
+	/**
+	 * Sets the cache checked before solving, or null to always search. Only 9x9 boards use the cache.
+	 */
+	void setSolutionCache(SudokuSolutionCache solutionCache)
+	{
+		this.solutionCache = solutionCache;
+	}
+
+	/**
+	 * Sets the listener notified of the result of every solve, or null to only log results.
+	 */
+	void setMetricsListener(SolveMetricsListener metricsListener)
+	{
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Solves the puzzle using the configured solver.
+	 *
+	 * @return Whether or not a solution was found.
+	 */
+	boolean solve()
+	{
+		return solve(solver);
+	}
+
+	/**
+	 * Solves the puzzle using the configured solver, giving up once any of the given limits is reached.
+	 */
+	SolveResult solve(SolveLimits limits)
+	{
+		return solve(solver, limits);
 	}
 
 	/**
-	 * Returns the previous mutable cell, or null if none exists.
+	 * Solves the puzzle using the given solver, filling the mutable cells with the solution. Unless
+	 * a metrics listener is set or debug logging is enabled, no {@link SolveResult} is created, so
+	 * solving boards back-to-back does not allocate.
+	 *
+	 * @return Whether or not a solution was found. If not, the board is left unmodified.
 	 */
-	private SudokuCell getPrevMutableCell(SudokuCell curCell)
+	boolean solve(SudokuSolver solver)
 	{
-		int curRow = curCell.getRow();
-		int curCol = curCell.getColumn();
-		if (curCol == 0)
+		if (metricsListener != null || log.isDebugEnabled())
+		{
+			return solve(solver, SolveLimits.NONE).isSolved();
+		}
+
+		if (seeded)
 		{
-			if (curRow == 0)
+			seeded = false;
+			solutionValid = solver.solve(cellValues);
+			if (!solutionValid)
 			{
-				return null;
+				reset();
 			}
-
-			curRow--;
-			curCol = SIZE - 1;
 		}
-		else
+
+		if (!solutionValid)
 		{
-			curCol--;
+			SudokuCanonicalForm canonicalForm = lookUpSolution();
+			long startNanos = System.nanoTime();
+			if (!solutionValid && solver.solve(cellValues))
+			{
+				solutionValid = true;
+				cacheSolution(canonicalForm, System.nanoTime() - startNanos);
+			}
 		}
 
-		for (int row = curRow; row >= 0; row--)
+		return solutionValid;
+	}
+
+	/**
+	 * Solves the puzzle using the given solver, giving up once any of the given limits is reached.
+	 * Unless a solution is found, the board is left unmodified. If the current solution is still
+	 * valid since the last solve, it is kept without searching. If a delta invalidated it, the
+	 * surviving cells are completed first, and the limits apply to that search and, if it finds
+	 * no solution, to the search from the given values separately.
+	 */
+	SolveResult solve(SudokuSolver solver, SolveLimits limits)
+	{
+		long startNanos = System.nanoTime();
+		SolveResult result = seeded ? repairSolution(solver, limits) : null;
+		if (result == null)
 		{
-			for (int col = curCol; col >= 0; col--)
+			SudokuCanonicalForm canonicalForm = solutionValid ? null : lookUpSolution();
+			if (solutionValid)
 			{
-				SudokuCell prevCell = getCell(row, col);
-				if (prevCell.isMutable())
+				result = new SolveResult(SolveResult.Status.SOLVED, 0L, 0L, 0L, System.nanoTime() - startNanos);
+			}
+			else
+			{
+				result = solver.solve(cellValues, limits);
+				if (result.isSolved())
 				{
-					return prevCell;
+					cacheSolution(canonicalForm, result.getElapsedNanos());
 				}
 			}
+		}
 
-			curCol = SIZE - 1;
+		solutionValid = result.isSolved();
+		log.debug("Finished solving {} board: {}", layout, result);
+		if (metricsListener != null)
+		{
+			metricsListener.onSolveFinished(this, result);
 		}
 
-		return null;
+		return result;
 	}
 
 	/**
-	 * Returns the cell at the given coordinates.
+	 * Completes the surviving cells of an invalidated solution, which the board holds after a
+	 * conflicting delta. If they admit no solution, the board is reset to its given values.
+	 *
+	 * @return The result of the search, or null if the board has to be solved from its given values.
 	 */
-	private SudokuCell getCell(int row, int column)
+	private SolveResult repairSolution(SudokuSolver solver, SolveLimits limits)
 	{
-		return boardData[row][column];
+		SolveResult result = solver.solve(cellValues, limits);
+		if (result.getStatus() == SolveResult.Status.UNSOLVABLE)
+		{
+			reset();
+			return null;
+		}
+
+		// A search stopped by a limit leaves the seed in place for the next solve
+		seeded = !result.isSolved();
+		return result;
 	}
 
 	/**
-	 * Modifies the given cell to determine if a valid move exists. If no valid move exists,
-	 * the given cell's value is set to 0.
+	 * Looks the board up in the solution cache, filling it with the cached solution on a hit. The
+	 * board is only canonicalized if the cache considers it worth the cost.
 	 *
-	 * @return Whether or not a valid move exists for the given cell.
+	 * @return The canonical form of the board, or null if the cache is not used, canonicalizing was
+	 * skipped or the board has no form.
 	 */
-	private boolean validMoveExists(SudokuCell cell)
+	private SudokuCanonicalForm lookUpSolution()
 	{
-		for (int i = cell.getValue() + 1; i <= SIZE; i++)
+		if (solutionCache == null || layout != SudokuLayout.STANDARD)
 		{
-			cell.setValue(i);
-			if (isValid(cell))
+			return null;
+		}
+
+		cacheInvariant = SudokuCanonicalForm.invariantOf(cellValues);
+		if (!solutionCache.isWorthCanonicalizing(cacheInvariant))
+		{
+			return null;
+		}
+
+		long startNanos = System.nanoTime();
+		SudokuCanonicalForm canonicalForm = SudokuCanonicalForm.of(cellValues);
+		solutionCache.recordCanonicalization(cacheInvariant, System.nanoTime() - startNanos, canonicalForm != null);
+		if (canonicalForm != null)
+		{
+			byte[] cachedSolution = solutionCache.get(canonicalForm.getKey());
+			if (cachedSolution != null)
 			{
-				return true;
+				canonicalForm.fromCanonical(cachedSolution, cellValues);
+				solutionValid = true;
 			}
 		}
 
-		cell.setValue(0);
-		return false;
+		return canonicalForm;
 	}
 
-	private boolean isValid(SudokuCell cell)
+	/**
+	 * Records the search which just filled the board in the solution cache, and caches the solution
+	 * under the given canonical form, if any.
+	 */
+	private void cacheSolution(SudokuCanonicalForm canonicalForm, long searchNanos)
 	{
-		if (cell.isEmpty())
+		if (solutionCache == null || layout != SudokuLayout.STANDARD)
 		{
-			return false;
+			return;
 		}
 
-		// Row and column checks
-		int cellValue = cell.getValue();
-		int rowIndex = cell.getRow();
-		int colIndex = cell.getColumn();
-		for (int i = 0; i < SIZE; i++)
+		solutionCache.recordSearch(cacheInvariant, searchNanos);
+		if (canonicalForm != null)
 		{
-			if ((i != rowIndex && cellValue == getCellValue(i, colIndex))
-					|| (i != colIndex && cellValue == getCellValue(rowIndex, i)))
-			{
-				return false;
-			}
+			solutionCache.put(canonicalForm.getKey(), canonicalForm.toCanonical(cellValues));
 		}
+	}
+
+	/**
+	 * Counts the solutions of the puzzle formed by the clues and entered values, stopping as soon
+	 * as the given limit is reached. The board is left unmodified.
+	 */
+	int countSolutions(int limit)
+	{
+		return solver.countSolutions(givenValues, limit);
+	}
 
-		// Square check
-		int sqRowIndex = (rowIndex / SQUARE_SIZE) * SQUARE_SIZE;
-		int sqColIndex = (colIndex / SQUARE_SIZE) * SQUARE_SIZE;
-		for (int i = sqRowIndex; i < (sqRowIndex + SQUARE_SIZE); i++)
+	/**
+	 * Returns whether or not the puzzle formed by the clues and entered values has exactly one solution. The search
+	 * stops as soon as a second solution is found.
+	 */
+	boolean hasUniqueSolution()
+	{
+		return countSolutions(2) == 1;
+	}
+
+	/**
+	 * Returns a view of the cell at the given coordinates. Clues the board was created from are
+	 * backed by their WidgetItem. Views are created on first use and reused afterwards, so the view
+	 * returned reflects the board as of the latest call for that cell.
+	 */
+	SudokuCell getCell(int row, int column)
+	{
+		if (cellViews == null)
 		{
-			for (int j = sqColIndex; j < (sqColIndex + SQUARE_SIZE); j++)
-			{
-				if (i == rowIndex && j == colIndex)
-				{
-					continue;
-				}
+			cellViews = new SudokuCell[layout.cellCount];
+		}
 
-				if (cellValue == getCellValue(i, j))
-				{
-					return false;
-				}
-			}
+		int index = row * layout.size + column;
+		SudokuCell cell = cellViews[index];
+		if (cell == null)
+		{
+			cell = fixedItems != null && fixedItems[index] != null ? new SudokuCell(fixedItems[index], row, column) : new SudokuCell(row, column);
+			cellViews[index] = cell;
+		}
+		if (cell.isMutable())
+		{
+			cell.setValue(cellValues[index]);
 		}
 
-		return true;
+		return cell;
+	}
+
+	/**
+	 * Returns the layout of this board.
+	 */
+	SudokuLayout getLayout()
+	{
+		return layout;
 	}
 
 	/**
 	 * Returns the value of the cell located at the given coordinates.
 	 */
-	private int getCellValue(int row, int column)
+	int getCellValue(int row, int column)
 	{
-		return getCell(row, column).getValue();
+		return cellValues[row * layout.size + column];
 	}
 
 	@Override
 	public String toString()
 	{
 		StringBuilder builder = new StringBuilder();
-		for (SudokuCell[] row : boardData)
+		for (int rowIndex = 0; rowIndex < layout.size; rowIndex++)
 		{
 			builder.append("\n[ ");
-			for (SudokuCell cell : row)
+			for (int colIndex = 0; colIndex < layout.size; colIndex++)
 			{
-				builder.append(cell.getValue()).append(" ");
+				builder.append(getCellValue(rowIndex, colIndex)).append(" ");
 			}
 
 			builder.append("]");
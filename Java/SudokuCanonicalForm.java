@@ -0,0 +1,537 @@
+package com.cwools.plugins.sudoku;
+
+import java.util.Arrays;
+
+/**
+ * The canonical form of a standard 9x9 grid under the symmetries which preserve Sudoku solutions:
+ * transposition, reordering bands and stacks, reordering rows within a band and columns within a
+ * stack, and relabeling values. Equivalent grids share the same canonical grid, so a solution found
+ * for one can be mapped back onto every other through the transformation each form records.
+ * <p>
+ * The canonical grid is the lexicographically smallest grid reachable through those symmetries,
+ * with values relabeled in order of first appearance and empty cells ordered after every value. It
+ * is found by a branch and bound search. The smallest possible first row only depends on where a
+ * row's clues are, so it is computed up front. Then, for each transposition and column order which
+ * produces it, the remaining rows are placed one at a time and only the rows producing the
+ * smallest prefix are explored further. Highly symmetric grids, such as nearly empty ones, can make
+ * that search explode, so it gives up after a fixed number of steps and such grids have no form.
+ * Ordinary puzzles need a few hundred steps, so the limit is set just above that.
+ * <p>
+ * Even so, computing a form costs far more than solving an easy puzzle, so {@link #invariantOf(byte[])}
+ * offers a cheap hash which equivalent grids share. It lets callers skip canonicalization for grids
+ * unlike any seen before.
+ */
+final class SudokuCanonicalForm
+{
+	private static final int SIZE = 9;
+	private static final int SQUARE_SIZE = 3;
+	private static final int CELL_COUNT = SIZE * SIZE;
+	private static final int[][] PERMUTATIONS = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+	// Sorts after every value while searching, and becomes 0 in the canonical grid
+	private static final byte EMPTY = SIZE + 1;
+	private static final int MAX_SEARCH_STEPS = 5_000;
+
+	private final byte[] canonicalGrid;
+	// Index of the original cell at each canonical cell
+	private final int[] cellMap;
+	// Canonical value of each original value, and the reverse
+	private final byte[] labels;
+	private final byte[] inverseLabels;
+
+	private SudokuCanonicalForm(byte[] canonicalGrid, int[] cellMap, byte[] labels)
+	{
+		this.canonicalGrid = canonicalGrid;
+		this.cellMap = cellMap;
+		this.labels = labels;
+		this.inverseLabels = new byte[SIZE + 1];
+		for (int value = 1; value <= SIZE; value++)
+		{
+			inverseLabels[labels[value]] = (byte) value;
+		}
+	}
+
+	/**
+	 * Computes the canonical form of the given 9x9 grid.
+	 *
+	 * @return The canonical form, or null if the grid is too symmetric to canonicalize cheaply.
+	 */
+	static SudokuCanonicalForm of(byte[] grid)
+	{
+		if (grid.length != CELL_COUNT)
+		{
+			throw new IllegalArgumentException("Only 9x9 grids have a canonical form");
+		}
+
+		return new Search(grid).run();
+	}
+
+	/**
+	 * Computes a hash of the given 9x9 grid which is unchanged by every symmetry the canonical form
+	 * covers, so equivalent grids always share it, while grids sharing it need not be equivalent. It
+	 * combines how many clues the rows of each band hold, with the bands in sorted order, the same
+	 * for columns, how many clues the squares hold and how many clues each value has.
+	 */
+	static long invariantOf(byte[] grid)
+	{
+		int[] rowCounts = new int[SIZE];
+		int[] columnCounts = new int[SIZE];
+		int[] squareCounts = new int[SIZE];
+		int[] valueCounts = new int[SIZE + 1];
+		for (int row = 0; row < SIZE; row++)
+		{
+			for (int column = 0; column < SIZE; column++)
+			{
+				int value = grid[row * SIZE + column];
+				if (value != 0)
+				{
+					rowCounts[row]++;
+					columnCounts[column]++;
+					squareCounts[(row / SQUARE_SIZE) * SQUARE_SIZE + column / SQUARE_SIZE]++;
+					valueCounts[value]++;
+				}
+			}
+		}
+
+		// Transposition swaps rows and columns, so their signatures are combined in sorted order
+		long rowSignature = getLineSignature(rowCounts);
+		long columnSignature = getLineSignature(columnCounts);
+		long hash = Math.min(rowSignature, columnSignature);
+		hash = hash * 31 + Math.max(rowSignature, columnSignature);
+		hash = hash * 31 + getCountHistogram(squareCounts, 0, SIZE);
+		return hash * 31 + getCountHistogram(valueCounts, 1, SIZE);
+	}
+
+	/**
+	 * Combines the clue count histograms of the bands of lines of a grid in sorted order.
+	 */
+	private static long getLineSignature(int[] lineCounts)
+	{
+		long first = getCountHistogram(lineCounts, 0, SQUARE_SIZE);
+		long second = getCountHistogram(lineCounts, SQUARE_SIZE, SQUARE_SIZE);
+		long third = getCountHistogram(lineCounts, 2 * SQUARE_SIZE, SQUARE_SIZE);
+		long smallest = Math.min(first, Math.min(second, third));
+		long largest = Math.max(first, Math.max(second, third));
+		long middle = first + second + third - smallest - largest;
+		return (smallest * 31 + middle) * 31 + largest;
+	}
+
+	/**
+	 * Returns how often each count from 0 to 9 occurs in the given range of counts, as 4 bit fields
+	 * packed into a number, which does not depend on the order of the range.
+	 */
+	private static long getCountHistogram(int[] counts, int from, int length)
+	{
+		long histogram = 0;
+		for (int i = from; i < from + length; i++)
+		{
+			histogram += 1L << (counts[i] * 4);
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Returns the canonical grid as a string of digits, where 0 marks an empty cell. Equivalent
+	 * grids return equal keys.
+	 */
+	String getKey()
+	{
+		char[] key = new char[CELL_COUNT];
+		for (int i = 0; i < CELL_COUNT; i++)
+		{
+			key[i] = (char) ('0' + canonicalGrid[i]);
+		}
+
+		return new String(key);
+	}
+
+	/**
+	 * Applies this form's transformation to a grid which extends the original grid, such as its
+	 * solution.
+	 */
+	byte[] toCanonical(byte[] grid)
+	{
+		byte[] canonical = new byte[CELL_COUNT];
+		for (int i = 0; i < CELL_COUNT; i++)
+		{
+			canonical[i] = labels[grid[cellMap[i]]];
+		}
+
+		return canonical;
+	}
+
+	/**
+	 * Reverses this form's transformation on a grid which extends the canonical grid, such as its
+	 * solution, writing the result into the given target.
+	 */
+	void fromCanonical(byte[] canonical, byte[] target)
+	{
+		for (int i = 0; i < CELL_COUNT; i++)
+		{
+			target[cellMap[i]] = inverseLabels[canonical[i]];
+		}
+	}
+
+	/**
+	 * Branch and bound search for the smallest transformed grid. All scratch state is allocated
+	 * up front for the nine levels of row placement.
+	 */
+	private static final class Search
+	{
+		private final byte[][] views = new byte[2][CELL_COUNT];
+		private byte[] view;
+		private int transpose;
+		private final int[] columnMap = new int[SIZE];
+		private final int[] rowMap = new int[SIZE];
+		private final boolean[] rowUsed = new boolean[SIZE];
+
+		// Relabeling in effect before each row is placed, and the next unused label
+		private final byte[][] labels = new byte[SIZE + 1][SIZE + 1];
+		private final int[] nextLabel = new int[SIZE + 1];
+		private final byte[] candidateLabels = new byte[SIZE + 1];
+		private final byte[] current = new byte[CELL_COUNT];
+		private final byte[] candidateRow = new byte[SIZE];
+		private final byte[][] minimumRows = new byte[SIZE][SIZE];
+
+		// Where the clues are in the smallest possible first row
+		private final boolean[] firstRowClues = new boolean[SIZE];
+		private final boolean[][] viewRowMatches = new boolean[2][SIZE];
+		private int steps;
+
+		private byte[] best;
+		private int bestTranspose;
+		private final int[] bestRowMap = new int[SIZE];
+		private final int[] bestColumnMap = new int[SIZE];
+		private final byte[] bestLabels = new byte[SIZE + 1];
+
+		Search(byte[] grid)
+		{
+			for (int row = 0; row < SIZE; row++)
+			{
+				for (int column = 0; column < SIZE; column++)
+				{
+					views[0][row * SIZE + column] = grid[row * SIZE + column];
+					views[1][row * SIZE + column] = grid[column * SIZE + row];
+				}
+			}
+		}
+
+		SudokuCanonicalForm run()
+		{
+			findFirstRowCandidates();
+
+			int arrangements = PERMUTATIONS.length * PERMUTATIONS.length * PERMUTATIONS.length * PERMUTATIONS.length;
+			for (transpose = 0; transpose < 2; transpose++)
+			{
+				view = views[transpose];
+				for (int arrangement = 0; arrangement < arrangements; arrangement++)
+				{
+					int[] stackOrder = PERMUTATIONS[arrangement % PERMUTATIONS.length];
+					int remaining = arrangement / PERMUTATIONS.length;
+					for (int stack = 0; stack < SQUARE_SIZE; stack++)
+					{
+						int[] columnOrder = PERMUTATIONS[remaining % PERMUTATIONS.length];
+						remaining /= PERMUTATIONS.length;
+						for (int i = 0; i < SQUARE_SIZE; i++)
+						{
+							columnMap[stack * SQUARE_SIZE + i] = stackOrder[stack] * SQUARE_SIZE + columnOrder[i];
+						}
+					}
+
+					for (int viewRow = 0; viewRow < SIZE; viewRow++)
+					{
+						if (viewRowMatches[transpose][viewRow] && producesFirstRow(viewRow))
+						{
+							placeFirstRow(viewRow);
+						}
+					}
+
+					if (steps > MAX_SEARCH_STEPS)
+					{
+						return null;
+					}
+				}
+			}
+
+			for (int i = 0; i < CELL_COUNT; i++)
+			{
+				if (best[i] == EMPTY)
+				{
+					best[i] = 0;
+				}
+			}
+
+			int[] cellMap = new int[CELL_COUNT];
+			for (int row = 0; row < SIZE; row++)
+			{
+				for (int column = 0; column < SIZE; column++)
+				{
+					int viewRow = bestRowMap[row];
+					int viewColumn = bestColumnMap[column];
+					cellMap[row * SIZE + column] = bestTranspose == 0 ? viewRow * SIZE + viewColumn : viewColumn * SIZE + viewRow;
+				}
+			}
+
+			// Values absent from the grid take the remaining labels in ascending order
+			int next = 0;
+			for (int value = 1; value <= SIZE; value++)
+			{
+				next = Math.max(next, bestLabels[value]);
+			}
+			for (int value = 1; value <= SIZE; value++)
+			{
+				if (bestLabels[value] == 0)
+				{
+					bestLabels[value] = (byte) ++next;
+				}
+			}
+
+			return new SudokuCanonicalForm(best, cellMap, bestLabels.clone());
+		}
+
+		/**
+		 * Determines the smallest possible first row, and which view rows can produce it. Since
+		 * relabeling turns the clues of the first row into 1, 2, 3 and so on, only the positions of
+		 * its clues matter: stacks with more clues come first, and clues come first within a stack.
+		 */
+		private void findFirstRowCandidates()
+		{
+			boolean[] clues = new boolean[SIZE];
+			boolean found = false;
+			for (int t = 0; t < 2; t++)
+			{
+				for (int viewRow = 0; viewRow < SIZE; viewRow++)
+				{
+					getSmallestClueLayout(views[t], viewRow, clues);
+					int comparison = found ? compareClueLayouts(clues, firstRowClues) : -1;
+					if (comparison < 0)
+					{
+						System.arraycopy(clues, 0, firstRowClues, 0, SIZE);
+						for (boolean[] matches : viewRowMatches)
+						{
+							Arrays.fill(matches, false);
+						}
+						found = true;
+					}
+					if (comparison <= 0)
+					{
+						viewRowMatches[t][viewRow] = true;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Writes where the clues of the given row end up when its columns are ordered to bring them
+		 * as far forward as possible.
+		 */
+		private static void getSmallestClueLayout(byte[] view, int viewRow, boolean[] clues)
+		{
+			int[] stackCounts = new int[SQUARE_SIZE];
+			for (int column = 0; column < SIZE; column++)
+			{
+				if (view[viewRow * SIZE + column] != 0)
+				{
+					stackCounts[column / SQUARE_SIZE]++;
+				}
+			}
+			Arrays.sort(stackCounts);
+
+			for (int stack = 0; stack < SQUARE_SIZE; stack++)
+			{
+				int count = stackCounts[SQUARE_SIZE - 1 - stack];
+				for (int i = 0; i < SQUARE_SIZE; i++)
+				{
+					clues[stack * SQUARE_SIZE + i] = i < count;
+				}
+			}
+		}
+
+		/**
+		 * Compares two clue layouts, where a clue sorts before an empty cell.
+		 */
+		private static int compareClueLayouts(boolean[] a, boolean[] b)
+		{
+			for (int i = 0; i < SIZE; i++)
+			{
+				if (a[i] != b[i])
+				{
+					return a[i] ? -1 : 1;
+				}
+			}
+
+			return 0;
+		}
+
+		/**
+		 * Returns whether or not the current column order turns the given view row into the
+		 * smallest possible first row.
+		 */
+		private boolean producesFirstRow(int viewRow)
+		{
+			for (int column = 0; column < SIZE; column++)
+			{
+				if ((view[viewRow * SIZE + columnMap[column]] != 0) != firstRowClues[column])
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Places the given view row as the first canonical row and searches the rest.
+		 */
+		private void placeFirstRow(int viewRow)
+		{
+			relabelRow(0, viewRow, current, labels[1]);
+			rowMap[0] = viewRow;
+			rowUsed[viewRow] = true;
+			placeRow(1);
+			rowUsed[viewRow] = false;
+		}
+
+		/**
+		 * Places the given canonical row, exploring every view row which produces the smallest
+		 * row contents and cannot be beaten by the best grid found so far.
+		 */
+		private void placeRow(int row)
+		{
+			int prefixComparison = best == null ? -1 : compare(current, 0, best, 0, row * SIZE);
+			if (prefixComparison > 0 || ++steps > MAX_SEARCH_STEPS)
+			{
+				return;
+			}
+			if (row == SIZE)
+			{
+				if (prefixComparison < 0)
+				{
+					recordBest();
+				}
+				return;
+			}
+
+			// The first row of a band may come from any unused band, and the rest from the same band
+			// as the row above. Bands are used up whole, so any unused row starts an unused band.
+			int firstCandidate;
+			int lastCandidate;
+			if (row % SQUARE_SIZE == 0)
+			{
+				firstCandidate = 0;
+				lastCandidate = SIZE - 1;
+			}
+			else
+			{
+				firstCandidate = (rowMap[row - 1] / SQUARE_SIZE) * SQUARE_SIZE;
+				lastCandidate = firstCandidate + SQUARE_SIZE - 1;
+			}
+
+			byte[] minimumRow = minimumRows[row];
+			boolean found = false;
+			for (int candidate = firstCandidate; candidate <= lastCandidate; candidate++)
+			{
+				if (!rowUsed[candidate])
+				{
+					relabelRow(row, candidate, candidateRow, null);
+					if (!found || compare(candidateRow, 0, minimumRow, 0, SIZE) < 0)
+					{
+						System.arraycopy(candidateRow, 0, minimumRow, 0, SIZE);
+						found = true;
+					}
+				}
+			}
+
+			if (!found || (prefixComparison == 0 && compare(minimumRow, 0, best, row * SIZE, SIZE) > 0))
+			{
+				return;
+			}
+
+			for (int candidate = firstCandidate; candidate <= lastCandidate; candidate++)
+			{
+				if (rowUsed[candidate])
+				{
+					continue;
+				}
+
+				relabelRow(row, candidate, candidateRow, labels[row + 1]);
+				if (compare(candidateRow, 0, minimumRow, 0, SIZE) != 0)
+				{
+					continue;
+				}
+
+				System.arraycopy(candidateRow, 0, current, row * SIZE, SIZE);
+				rowMap[row] = candidate;
+				rowUsed[candidate] = true;
+				placeRow(row + 1);
+				rowUsed[candidate] = false;
+			}
+		}
+
+		/**
+		 * Writes the contents of the given view row, relabeled on top of the labels in effect for
+		 * the given canonical row, into the output. If resultLabels is not null, the extended
+		 * relabeling is stored there and becomes the one in effect for the following row.
+		 */
+		private void relabelRow(int row, int viewRow, byte[] output, byte[] resultLabels)
+		{
+			byte[] rowLabels = labels[row];
+			int next = nextLabel[row];
+			int assigned = 0;
+			byte[] newLabels = resultLabels != null ? resultLabels : candidateLabels;
+			System.arraycopy(rowLabels, 0, newLabels, 0, SIZE + 1);
+			for (int column = 0; column < SIZE; column++)
+			{
+				int value = view[viewRow * SIZE + columnMap[column]];
+				if (value == 0)
+				{
+					output[column] = EMPTY;
+					continue;
+				}
+				if (newLabels[value] == 0)
+				{
+					newLabels[value] = (byte) (next + ++assigned);
+				}
+				output[column] = newLabels[value];
+			}
+
+			if (resultLabels != null)
+			{
+				nextLabel[row + 1] = next + assigned;
+			}
+		}
+
+		/**
+		 * Records the grid placed so far as the best one found.
+		 */
+		private void recordBest()
+		{
+			if (best == null)
+			{
+				best = new byte[CELL_COUNT];
+			}
+			System.arraycopy(current, 0, best, 0, CELL_COUNT);
+			System.arraycopy(rowMap, 0, bestRowMap, 0, SIZE);
+			System.arraycopy(columnMap, 0, bestColumnMap, 0, SIZE);
+			System.arraycopy(labels[SIZE], 0, bestLabels, 0, SIZE + 1);
+			bestTranspose = transpose;
+		}
+
+		/**
+		 * Compares the given ranges of two grids lexicographically.
+		 */
+		private static int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				int difference = a[aOffset + i] - b[bOffset + i];
+				if (difference != 0)
+				{
+					return difference;
+				}
+			}
+
+			return 0;
+		}
+	}
+}
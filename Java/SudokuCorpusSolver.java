@@ -0,0 +1,263 @@
+package com.cwools.plugins.sudoku;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Solves corpus files of 9x9 puzzles, one 81 character line per puzzle in the format read by
+ * {@link SudokuBoard#fromString(String)}, and writes the solutions to a file in the same format.
+ * Lines may end in "\n" or "\r\n", and the last line may have no line ending at all.
+ * <p>
+ * The input is memory-mapped and puzzles are parsed straight from the mapped bytes into a grid
+ * which each worker thread reuses, so no Strings or boards are created. Since every line has the
+ * same length, the corpus is split into chunks of lines which are solved in parallel on a
+ * {@link ForkJoinPool}. Each chunk is written to the output with a single positional write of a
+ * per-thread buffer, so chunks can complete in any order.
+ */
+class SudokuCorpusSolver
+{
+	private static final int PUZZLE_LENGTH = 81;
+	private static final int MAX_LINE_LENGTH = PUZZLE_LENGTH + 2;
+	private static final int CHUNK_PUZZLES = 1024;
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<SudokuSolver> threadSolvers;
+	private final ThreadLocal<byte[]> threadGrids = ThreadLocal.withInitial(() -> new byte[PUZZLE_LENGTH]);
+	private final ThreadLocal<ByteBuffer> threadBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_PUZZLES * MAX_LINE_LENGTH));
+
+	/**
+	 * Creates a corpus solver which runs on the given pool using Depth-First Search solvers.
+	 */
+	SudokuCorpusSolver(ForkJoinPool pool)
+	{
+		this(pool, DepthFirstSolver::new);
+	}
+
+	/**
+	 * Creates a corpus solver which runs on the given pool, creating one solver per worker thread
+	 * from the given factory.
+	 */
+	SudokuCorpusSolver(ForkJoinPool pool, Supplier<SudokuSolver> solverFactory)
+	{
+		this.pool = pool;
+		this.threadSolvers = ThreadLocal.withInitial(solverFactory);
+	}
+
+	/**
+	 * Solves every puzzle in the given input file and writes the solutions to the given output
+	 * file, replacing it if it exists. Lines of the output correspond to lines of the input, and
+	 * puzzles without a solution are copied unchanged.
+	 *
+	 * @return The number of puzzles which were solved.
+	 * @throws IOException If either file cannot be accessed, or the input is not a corpus of puzzles.
+	 */
+	long solveFile(Path input, Path output) throws IOException
+	{
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			long size = in.size();
+			if (size == 0)
+			{
+				return 0;
+			}
+
+			int lineLength = readLineLength(in);
+			if (size % lineLength != 0 && size % lineLength != PUZZLE_LENGTH)
+			{
+				throw new IOException(input + " is not a corpus of " + PUZZLE_LENGTH + " character lines");
+			}
+
+			// Each mapping is limited to 2GB, so large corpora are solved one window of whole chunks at a time
+			long puzzleCount = (size + lineLength - PUZZLE_LENGTH) / lineLength;
+			long puzzlesPerWindow = Integer.MAX_VALUE / lineLength / CHUNK_PUZZLES * CHUNK_PUZZLES;
+			AtomicLong solvedCount = new AtomicLong();
+			for (long firstPuzzle = 0; firstPuzzle < puzzleCount; firstPuzzle += puzzlesPerWindow)
+			{
+				int windowPuzzles = (int) Math.min(puzzlesPerWindow, puzzleCount - firstPuzzle);
+				long windowPosition = firstPuzzle * lineLength;
+				long windowLength = Math.min((long) windowPuzzles * lineLength, size - windowPosition);
+
+				MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowPosition, windowLength);
+				Corpus corpus = new Corpus(window, windowPosition, lineLength, out, solvedCount);
+				pool.invoke(new SolveChunkTask(corpus, 0, windowPuzzles));
+			}
+
+			return solvedCount.get();
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Determines the length of every line of the given corpus, including its line ending, from the
+	 * first line.
+	 */
+	private static int readLineLength(FileChannel in) throws IOException
+	{
+		ByteBuffer firstLine = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		int length = 0;
+		while (length < MAX_LINE_LENGTH)
+		{
+			int read = in.read(firstLine, length);
+			if (read < 0)
+			{
+				break;
+			}
+			length += read;
+		}
+
+		if (length == PUZZLE_LENGTH)
+		{
+			return PUZZLE_LENGTH;
+		}
+		if (length > PUZZLE_LENGTH && firstLine.get(PUZZLE_LENGTH) == '\n')
+		{
+			return PUZZLE_LENGTH + 1;
+		}
+		if (length > PUZZLE_LENGTH + 1 && firstLine.get(PUZZLE_LENGTH) == '\r' && firstLine.get(PUZZLE_LENGTH + 1) == '\n')
+		{
+			return PUZZLE_LENGTH + 2;
+		}
+
+		throw new IOException("The first line is not a " + PUZZLE_LENGTH + " character puzzle");
+	}
+
+	/**
+	 * A mapped window of a corpus file along with where its solutions go.
+	 */
+	private static class Corpus
+	{
+		private final MappedByteBuffer window;
+		private final long windowPosition;
+		private final int lineLength;
+		private final FileChannel out;
+		private final AtomicLong solvedCount;
+
+		Corpus(MappedByteBuffer window, long windowPosition, int lineLength, FileChannel out, AtomicLong solvedCount)
+		{
+			this.window = window;
+			this.windowPosition = windowPosition;
+			this.lineLength = lineLength;
+			this.out = out;
+			this.solvedCount = solvedCount;
+		}
+	}
+
+	/**
+	 * Solves a contiguous range of puzzles in a window, splitting it in half while it is larger
+	 * than a chunk.
+	 */
+	@SuppressWarnings("serial")
+	private class SolveChunkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Corpus corpus;
+		private final int from;
+		private final int to;
+
+		SolveChunkTask(Corpus corpus, int from, int to)
+		{
+			this.corpus = corpus;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > CHUNK_PUZZLES)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SolveChunkTask(corpus, from, middle), new SolveChunkTask(corpus, middle, to));
+				return;
+			}
+
+			SudokuSolver solver = threadSolvers.get();
+			byte[] grid = threadGrids.get();
+			ByteBuffer buffer = threadBuffers.get();
+			buffer.clear();
+
+			MappedByteBuffer window = corpus.window;
+			int solved = 0;
+			for (int puzzle = from; puzzle < to; puzzle++)
+			{
+				int lineStart = puzzle * corpus.lineLength;
+				parse(window, lineStart, grid, puzzle);
+				if (solver.solve(grid))
+				{
+					solved++;
+					for (int cell = 0; cell < PUZZLE_LENGTH; cell++)
+					{
+						buffer.put((byte) ('0' + grid[cell]));
+					}
+				}
+				else
+				{
+					for (int cell = 0; cell < PUZZLE_LENGTH; cell++)
+					{
+						buffer.put(window.get(lineStart + cell));
+					}
+				}
+
+				int lineEnd = Math.min(lineStart + corpus.lineLength, window.limit());
+				for (int i = lineStart + PUZZLE_LENGTH; i < lineEnd; i++)
+				{
+					buffer.put(window.get(i));
+				}
+			}
+
+			buffer.flip();
+			try
+			{
+				long position = corpus.windowPosition + (long) from * corpus.lineLength;
+				while (buffer.hasRemaining())
+				{
+					position += corpus.out.write(buffer, position);
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+
+			corpus.solvedCount.addAndGet(solved);
+		}
+
+		/**
+		 * Parses the puzzle on the line starting at the given position of the window into the given grid.
+		 */
+		private void parse(MappedByteBuffer window, int lineStart, byte[] grid, int puzzle)
+		{
+			for (int cell = 0; cell < PUZZLE_LENGTH; cell++)
+			{
+				byte c = window.get(lineStart + cell);
+				if (c >= '1' && c <= '9')
+				{
+					grid[cell] = (byte) (c - '0');
+				}
+				else if (c == '.' || c == '0')
+				{
+					grid[cell] = 0;
+				}
+				else
+				{
+					long line = corpus.windowPosition / corpus.lineLength + puzzle + 1;
+					throw new UncheckedIOException(new IOException("Unexpected character at line " + line + ", column " + (cell + 1)));
+				}
+			}
+		}
+	}
+}
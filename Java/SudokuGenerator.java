@@ -0,0 +1,420 @@
+package com.cwools.plugins.sudoku;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates random puzzles with a unique solution and grades their difficulty. Every puzzle is
+ * derived from the generator's seed and its own index alone, so the same seed and index always
+ * produce the same puzzle, however many threads generate them and in whichever order.
+ * <p>
+ * A full grid is made by filling the squares on the main diagonal, which do not constrain each
+ * other, with random permutations and solving the rest. Clues are then removed in a random order,
+ * keeping each removal only while the puzzle stays unique and no harder than the hardest requested
+ * grade. Puzzles solvable by singles are unique by construction, so the more expensive solution
+ * count is only needed when search is allowed. If the puzzle left is easier than the easiest
+ * requested grade, it is rejected and another full grid is tried. Only a few percent of 9x9 grids
+ * end up {@link Difficulty#EXPERT}, so expert puzzles take a few dozen attempts each.
+ * <p>
+ * Difficulty is graded by the techniques needed to solve the puzzle and, past singles, by the
+ * number of search nodes {@link DepthFirstSolver} visits.
+ */
+class SudokuGenerator
+{
+	private static final int SPLIT_THRESHOLD = 4;
+	private static final long HARD_MAX_NODES = 10;
+	private static final long INDEX_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final int MAX_ATTEMPTS = 1000;
+
+	private final ForkJoinPool pool;
+	private final long seed;
+	private final SudokuLayout layout;
+	private final ThreadLocal<Worker> threadWorkers;
+
+	/**
+	 * Grades of difficulty, from easiest to hardest.
+	 */
+	enum Difficulty
+	{
+		/**
+		 * Solvable by naked singles alone.
+		 */
+		EASY,
+		/**
+		 * Solvable by naked and hidden singles.
+		 */
+		MEDIUM,
+		/**
+		 * Needs a small amount of search after singles.
+		 */
+		HARD,
+		/**
+		 * Needs more search than a hard puzzle.
+		 */
+		EXPERT
+	}
+
+	/**
+	 * Creates a generator of 9x9 puzzles which runs on the given pool.
+	 */
+	SudokuGenerator(ForkJoinPool pool, long seed)
+	{
+		this(pool, seed, SudokuLayout.STANDARD);
+	}
+
+	/**
+	 * Creates a generator of puzzles of the given layout which runs on the given pool.
+	 */
+	SudokuGenerator(ForkJoinPool pool, long seed, SudokuLayout layout)
+	{
+		this.pool = pool;
+		this.seed = seed;
+		this.layout = layout;
+		this.threadWorkers = ThreadLocal.withInitial(Worker::new);
+	}
+
+	/**
+	 * Generates the puzzle with the given index and grade on the calling thread.
+	 *
+	 * @throws IllegalStateException If no puzzle of the grade was found within the attempt limit.
+	 */
+	GeneratedPuzzle generate(long index, Difficulty difficulty)
+	{
+		return generate(index, difficulty, difficulty);
+	}
+
+	/**
+	 * Generates the puzzle with the given index on the calling thread, graded within the given range.
+	 *
+	 * @throws IllegalArgumentException If the easiest grade is harder than the hardest one.
+	 * @throws IllegalStateException    If no puzzle within the range was found within the attempt limit.
+	 */
+	GeneratedPuzzle generate(long index, Difficulty minDifficulty, Difficulty maxDifficulty)
+	{
+		checkRange(minDifficulty, maxDifficulty);
+		return threadWorkers.get().generate(index, minDifficulty, maxDifficulty);
+	}
+
+	/**
+	 * Generates the given number of consecutive puzzles of the given grade in parallel on the pool.
+	 *
+	 * @return The puzzles in index order, starting with the given index.
+	 */
+	List<GeneratedPuzzle> generateAll(long firstIndex, int count, Difficulty difficulty)
+	{
+		return generateAll(firstIndex, count, difficulty, difficulty);
+	}
+
+	/**
+	 * Generates the given number of consecutive puzzles graded within the given range in parallel on the pool.
+	 *
+	 * @return The puzzles in index order, starting with the given index.
+	 */
+	List<GeneratedPuzzle> generateAll(long firstIndex, int count, Difficulty minDifficulty, Difficulty maxDifficulty)
+	{
+		checkRange(minDifficulty, maxDifficulty);
+		GeneratedPuzzle[] puzzles = new GeneratedPuzzle[count];
+		pool.invoke(new GenerateRangeTask(puzzles, firstIndex, minDifficulty, maxDifficulty, 0, count));
+		return Arrays.asList(puzzles);
+	}
+
+	/**
+	 * Checks that the given grades form a range.
+	 */
+	private static void checkRange(Difficulty minDifficulty, Difficulty maxDifficulty)
+	{
+		if (minDifficulty.compareTo(maxDifficulty) > 0)
+		{
+			throw new IllegalArgumentException("Difficulty " + minDifficulty + " is harder than " + maxDifficulty);
+		}
+	}
+
+	/**
+	 * A generated puzzle along with its solution and grade.
+	 */
+	static class GeneratedPuzzle
+	{
+		private final byte[] puzzle;
+		private final byte[] solution;
+		private final Difficulty difficulty;
+
+		GeneratedPuzzle(byte[] puzzle, byte[] solution, Difficulty difficulty)
+		{
+			this.puzzle = puzzle;
+			this.solution = solution;
+			this.difficulty = difficulty;
+		}
+
+		/**
+		 * Returns the grid of clues, with 0 for every empty cell.
+		 */
+		byte[] getPuzzle()
+		{
+			return puzzle;
+		}
+
+		/**
+		 * Returns the unique solution of the puzzle.
+		 */
+		byte[] getSolution()
+		{
+			return solution;
+		}
+
+		Difficulty getDifficulty()
+		{
+			return difficulty;
+		}
+	}
+
+	/**
+	 * Generates a contiguous range of puzzles, splitting it in half while it is above the threshold.
+	 */
+	@SuppressWarnings("serial")
+	private class GenerateRangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final GeneratedPuzzle[] puzzles;
+		private final long firstIndex;
+		private final Difficulty minDifficulty;
+		private final Difficulty maxDifficulty;
+		private final int from;
+		private final int to;
+
+		GenerateRangeTask(GeneratedPuzzle[] puzzles, long firstIndex, Difficulty minDifficulty, Difficulty maxDifficulty, int from, int to)
+		{
+			this.puzzles = puzzles;
+			this.firstIndex = firstIndex;
+			this.minDifficulty = minDifficulty;
+			this.maxDifficulty = maxDifficulty;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > SPLIT_THRESHOLD)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new GenerateRangeTask(puzzles, firstIndex, minDifficulty, maxDifficulty, from, middle),
+						new GenerateRangeTask(puzzles, firstIndex, minDifficulty, maxDifficulty, middle, to));
+				return;
+			}
+
+			Worker worker = threadWorkers.get();
+			for (int i = from; i < to; i++)
+			{
+				puzzles[i] = worker.generate(firstIndex + i, minDifficulty, maxDifficulty);
+			}
+		}
+	}
+
+	/**
+	 * The solver and scratch state of one thread.
+	 */
+	private class Worker
+	{
+		private final DepthFirstSolver solver = new DepthFirstSolver(layout);
+		private final byte[] scratch = new byte[layout.cellCount];
+		private final int[] cellOrder = new int[layout.cellCount];
+		private final int[] rowMasks = new int[layout.size];
+		private final int[] columnMasks = new int[layout.size];
+		private final int[] squareMasks = new int[layout.size];
+
+		/**
+		 * Generates puzzles from the random sequence of the given index until one is graded within
+		 * the given range. Every removal keeps the puzzle within the hardest grade, so only puzzles
+		 * which end up too easy are rejected.
+		 */
+		GeneratedPuzzle generate(long index, Difficulty minDifficulty, Difficulty maxDifficulty)
+		{
+			SplittableRandom random = new SplittableRandom(seed ^ index * INDEX_GAMMA);
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++)
+			{
+				byte[] solution = createSolution(random);
+
+				byte[] puzzle = solution.clone();
+				for (int cell = 0; cell < cellOrder.length; cell++)
+				{
+					cellOrder[cell] = cell;
+				}
+				shuffle(cellOrder, random);
+
+				for (int cell : cellOrder)
+				{
+					int value = puzzle[cell];
+					puzzle[cell] = 0;
+					if (!isAcceptable(puzzle, maxDifficulty))
+					{
+						puzzle[cell] = (byte) value;
+					}
+				}
+
+				Difficulty difficulty = grade(puzzle);
+				if (difficulty.compareTo(minDifficulty) >= 0)
+				{
+					return new GeneratedPuzzle(puzzle, solution, difficulty);
+				}
+			}
+
+			throw new IllegalStateException("No puzzle graded " + minDifficulty + " to " + maxDifficulty + " found for index " + index + " in " + MAX_ATTEMPTS + " attempts");
+		}
+
+		/**
+		 * Creates a random full grid by filling the squares on the diagonal and solving the rest. A
+		 * fill which can not be completed, as is common with 2x2 squares, is replaced by another.
+		 */
+		private byte[] createSolution(SplittableRandom random)
+		{
+			int[] values = new int[layout.size];
+			while (true)
+			{
+				byte[] grid = new byte[layout.cellCount];
+				for (int square = 0; square < layout.size; square += layout.squareSize + 1)
+				{
+					for (int i = 0; i < values.length; i++)
+					{
+						values[i] = i + 1;
+					}
+					shuffle(values, random);
+
+					int[] cells = layout.unitCells[layout.size * 2 + square];
+					for (int i = 0; i < cells.length; i++)
+					{
+						grid[cells[i]] = (byte) values[i];
+					}
+				}
+
+				if (solver.solve(grid))
+				{
+					return grid;
+				}
+			}
+		}
+
+		/**
+		 * Returns whether or not the given puzzle has a unique solution and is no harder than the
+		 * given difficulty.
+		 */
+		private boolean isAcceptable(byte[] puzzle, Difficulty maxDifficulty)
+		{
+			switch (maxDifficulty)
+			{
+				case EASY:
+					return isSolvedByNakedSingles(puzzle);
+				case MEDIUM:
+					return isSolvedBySingles(puzzle);
+				case HARD:
+					return solver.countSolutions(puzzle, 2) == 1 && grade(puzzle) != Difficulty.EXPERT;
+				default:
+					return solver.countSolutions(puzzle, 2) == 1;
+			}
+		}
+
+		/**
+		 * Grades the given puzzle, which must have a unique solution.
+		 */
+		private Difficulty grade(byte[] puzzle)
+		{
+			if (isSolvedByNakedSingles(puzzle))
+			{
+				return Difficulty.EASY;
+			}
+
+			System.arraycopy(puzzle, 0, scratch, 0, scratch.length);
+			long nodes = solver.solve(scratch, SolveLimits.NONE.withMaxNodes(HARD_MAX_NODES + 1)).getNodesVisited();
+			if (nodes == 0)
+			{
+				return Difficulty.MEDIUM;
+			}
+
+			return nodes <= HARD_MAX_NODES ? Difficulty.HARD : Difficulty.EXPERT;
+		}
+
+		/**
+		 * Returns whether or not naked and hidden singles alone complete the given puzzle.
+		 */
+		private boolean isSolvedBySingles(byte[] puzzle)
+		{
+			System.arraycopy(puzzle, 0, scratch, 0, scratch.length);
+			return solver.propagateOnly(scratch) == DepthFirstSolver.NO_CELL;
+		}
+
+		/**
+		 * Returns whether or not repeatedly filling cells with a single candidate completes the given puzzle.
+		 */
+		private boolean isSolvedByNakedSingles(byte[] puzzle)
+		{
+			System.arraycopy(puzzle, 0, scratch, 0, scratch.length);
+			Arrays.fill(rowMasks, 0);
+			Arrays.fill(columnMasks, 0);
+			Arrays.fill(squareMasks, 0);
+			int emptyCells = 0;
+			for (int cell = 0; cell < scratch.length; cell++)
+			{
+				if (scratch[cell] == 0)
+				{
+					emptyCells++;
+				}
+				else
+				{
+					place(cell, scratch[cell]);
+				}
+			}
+
+			boolean changed = true;
+			while (changed && emptyCells > 0)
+			{
+				changed = false;
+				for (int cell = 0; cell < scratch.length; cell++)
+				{
+					if (scratch[cell] != 0)
+					{
+						continue;
+					}
+
+					int candidates = ~(rowMasks[layout.cellRow[cell]] | columnMasks[layout.cellColumn[cell]] | squareMasks[layout.cellSquare[cell]]) & layout.allValues;
+					if (candidates != 0 && (candidates & (candidates - 1)) == 0)
+					{
+						scratch[cell] = (byte) Integer.numberOfTrailingZeros(candidates);
+						place(cell, scratch[cell]);
+						emptyCells--;
+						changed = true;
+					}
+				}
+			}
+
+			return emptyCells == 0;
+		}
+
+		/**
+		 * Marks the given value as used in the row, column and square of the given cell.
+		 */
+		private void place(int cell, int value)
+		{
+			int bit = 1 << value;
+			rowMasks[layout.cellRow[cell]] |= bit;
+			columnMasks[layout.cellColumn[cell]] |= bit;
+			squareMasks[layout.cellSquare[cell]] |= bit;
+		}
+	}
+
+	/**
+	 * Shuffles the given array in place with the Fisher-Yates algorithm.
+	 */
+	private static void shuffle(int[] array, SplittableRandom random)
+	{
+		for (int i = array.length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int value = array[i];
+			array[i] = array[j];
+			array[j] = value;
+		}
+	}
+}
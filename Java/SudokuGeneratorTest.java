@@ -0,0 +1,139 @@
+package com.cwools.plugins.sudoku;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link SudokuGenerator} produces unique puzzles of the requested grade. Grades past
+ * singles are checked against the search effort of a separate {@link DepthFirstSolver}.
+ */
+class SudokuGeneratorTest
+{
+	private static final long SEED = 7L;
+	private static final int PUZZLE_COUNT = 20;
+	private static final long HARD_MAX_NODES = 10;
+
+	@Test
+	void generatesRequestedDifficulty()
+	{
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try
+		{
+			SudokuGenerator generator = new SudokuGenerator(pool, SEED);
+			for (SudokuGenerator.Difficulty difficulty : SudokuGenerator.Difficulty.values())
+			{
+				for (SudokuGenerator.GeneratedPuzzle puzzle : generator.generateAll(0, PUZZLE_COUNT, difficulty))
+				{
+					assertEquals(difficulty, puzzle.getDifficulty());
+					assertGraded(puzzle, difficulty);
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void generatesWithinDifficultyRange()
+	{
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try
+		{
+			SudokuGenerator generator = new SudokuGenerator(pool, SEED);
+			List<SudokuGenerator.GeneratedPuzzle> puzzles = generator.generateAll(0, PUZZLE_COUNT, SudokuGenerator.Difficulty.MEDIUM, SudokuGenerator.Difficulty.HARD);
+			for (SudokuGenerator.GeneratedPuzzle puzzle : puzzles)
+			{
+				assertTrue(puzzle.getDifficulty() == SudokuGenerator.Difficulty.MEDIUM || puzzle.getDifficulty() == SudokuGenerator.Difficulty.HARD,
+						"Difficulty " + puzzle.getDifficulty() + " is outside of the range");
+				assertGraded(puzzle, puzzle.getDifficulty());
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void generatesSamePuzzleOnAnyThread()
+	{
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try
+		{
+			SudokuGenerator generator = new SudokuGenerator(pool, SEED);
+			List<SudokuGenerator.GeneratedPuzzle> puzzles = generator.generateAll(100, PUZZLE_COUNT, SudokuGenerator.Difficulty.HARD);
+			SudokuGenerator serialGenerator = new SudokuGenerator(pool, SEED);
+			for (int i = 0; i < puzzles.size(); i++)
+			{
+				assertArrayEquals(serialGenerator.generate(100 + i, SudokuGenerator.Difficulty.HARD).getPuzzle(), puzzles.get(i).getPuzzle());
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void generatesSolvedPuzzlesOnSmallGrids()
+	{
+		SudokuLayout layout = SudokuLayout.of(2);
+		DepthFirstSolver solver = new DepthFirstSolver(layout);
+		SudokuGenerator generator = new SudokuGenerator(ForkJoinPool.commonPool(), 0, layout);
+		// Puzzles this small hardly ever need more than naked singles, so only easy ones are asked for
+		List<SudokuGenerator.GeneratedPuzzle> puzzles = new ArrayList<>(generator.generateAll(0, PUZZLE_COUNT, SudokuGenerator.Difficulty.EASY, SudokuGenerator.Difficulty.EXPERT));
+		puzzles.addAll(generator.generateAll(0, PUZZLE_COUNT, SudokuGenerator.Difficulty.EASY));
+		for (SudokuGenerator.GeneratedPuzzle puzzle : puzzles)
+		{
+			assertEquals(1, solver.countSolutions(puzzle.getPuzzle(), 2));
+
+			byte[] grid = puzzle.getPuzzle().clone();
+			assertTrue(solver.solve(grid));
+			assertArrayEquals(puzzle.getSolution(), grid);
+		}
+	}
+
+	@Test
+	void rejectsInvertedDifficultyRange()
+	{
+		SudokuGenerator generator = new SudokuGenerator(ForkJoinPool.commonPool(), SEED);
+		assertThrows(IllegalArgumentException.class, () -> generator.generate(0, SudokuGenerator.Difficulty.EXPERT, SudokuGenerator.Difficulty.EASY));
+	}
+
+	/**
+	 * Checks that the given puzzle has a unique solution which the generator reported, and that
+	 * solving it takes the search effort of the given grade.
+	 */
+	private static void assertGraded(SudokuGenerator.GeneratedPuzzle puzzle, SudokuGenerator.Difficulty difficulty)
+	{
+		DepthFirstSolver solver = new DepthFirstSolver();
+		assertEquals(1, solver.countSolutions(puzzle.getPuzzle(), 2));
+
+		byte[] grid = puzzle.getPuzzle().clone();
+		long nodes = solver.solve(grid, SolveLimits.NONE.withMaxNodes(HARD_MAX_NODES + 1)).getNodesVisited();
+		switch (difficulty)
+		{
+			case EASY:
+			case MEDIUM:
+				assertEquals(0, nodes, "Search nodes of a " + difficulty + " puzzle");
+				assertArrayEquals(puzzle.getSolution(), grid);
+				break;
+			case HARD:
+				assertTrue(nodes > 0 && nodes <= HARD_MAX_NODES, "Search nodes of a HARD puzzle: " + nodes);
+				assertArrayEquals(puzzle.getSolution(), grid);
+				break;
+			default:
+				assertTrue(nodes > HARD_MAX_NODES, "Search nodes of an EXPERT puzzle: " + nodes);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * The geometry of a Sudoku grid of N*N by N*N cells, made of NxN squares of NxN cells each. Cells
+ * are numbered in row-major order. Each layout holds the lookup tables solvers need to find the
+ * row, column and square of a cell, and is shared by every board and solver of that size.
+ * <p>
+ * Candidate values are tracked as bits 1 to N*N of an int, which limits squares to 5x5 cells.
+ */
+final class SudokuLayout
+{
+	static final int MIN_SQUARE_SIZE = 2;
+	static final int MAX_SQUARE_SIZE = 5;
+
+	private static final SudokuLayout[] LAYOUTS = new SudokuLayout[MAX_SQUARE_SIZE + 1];
+
+	static
+	{
+		for (int squareSize = MIN_SQUARE_SIZE; squareSize <= MAX_SQUARE_SIZE; squareSize++)
+		{
+			LAYOUTS[squareSize] = new SudokuLayout(squareSize);
+		}
+	}
+
+	/**
+	 * The standard 9x9 layout.
+	 */
+	static final SudokuLayout STANDARD = LAYOUTS[3];
+
+	final int squareSize;
+	final int size;
+	final int cellCount;
+	final int unitCount;
+	// Bits 1 to size set
+	final int allValues;
+
+	final int[] cellRow;
+	final int[] cellColumn;
+	final int[] cellSquare;
+	// Cells of every row, then every column, then every square
+	final int[][] unitCells;
+
+	private SudokuLayout(int squareSize)
+	{
+		this.squareSize = squareSize;
+		this.size = squareSize * squareSize;
+		this.cellCount = size * size;
+		this.unitCount = size * 3;
+		this.allValues = ((1 << size) - 1) << 1;
+
+		cellRow = new int[cellCount];
+		cellColumn = new int[cellCount];
+		cellSquare = new int[cellCount];
+		unitCells = new int[unitCount][size];
+		for (int cell = 0; cell < cellCount; cell++)
+		{
+			int row = cell / size;
+			int column = cell % size;
+			int square = (row / squareSize) * squareSize + column / squareSize;
+			int squareOffset = (row % squareSize) * squareSize + column % squareSize;
+			cellRow[cell] = row;
+			cellColumn[cell] = column;
+			cellSquare[cell] = square;
+			unitCells[row][column] = cell;
+			unitCells[size + column][row] = cell;
+			unitCells[size * 2 + square][squareOffset] = cell;
+		}
+	}
+
+	/**
+	 * Returns the layout made of squares with the given number of cells per side.
+	 *
+	 * @throws IllegalArgumentException if the square size is not supported.
+	 */
+	static SudokuLayout of(int squareSize)
+	{
+		if (squareSize < MIN_SQUARE_SIZE || squareSize > MAX_SQUARE_SIZE)
+		{
+			throw new IllegalArgumentException("Unsupported square size: " + squareSize);
+		}
+
+		return LAYOUTS[squareSize];
+	}
+
+	@Override
+	public String toString()
+	{
+		return size + "x" + size;
+	}
+}
@@ -0,0 +1,317 @@
+package com.cwools.plugins.sudoku;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of solutions keyed on the canonical form of a puzzle, so
+ * that a puzzle which is a relabeled, permuted or transposed copy of one solved before can reuse
+ * its solution. Keys come from {@link SudokuCanonicalForm#getKey()} and solutions are stored in
+ * canonical form. The cache is safe to share between boards and threads.
+ * <p>
+ * Computing a canonical form costs more than solving most puzzles, so boards only do it for
+ * puzzles which are likely repeats and were expensive to solve. The cache remembers the search
+ * time of recently solved puzzles by their {@link SudokuCanonicalForm#invariantOf(byte[]) invariant},
+ * and a puzzle is only canonicalized if a puzzle with the same invariant took longer to search than
+ * canonicalizing takes on average. A puzzle's solution is therefore cached the second time it is
+ * seen, and reused from the third time on.
+ * <p>
+ * The cache can be saved to and loaded from a local file, one {@code puzzle:solution} entry per
+ * line, so that it survives restarts.
+ */
+@Slf4j
+class SudokuSolutionCache
+{
+	private static final char SEPARATOR = ':';
+	private static final int SIZE = 9;
+	private static final int SQUARE_SIZE = 3;
+	private static final int CELL_COUNT = SIZE * SIZE;
+	private static final int SEARCHES_PER_SOLUTION = 4;
+	// Assumed cost of canonicalizing, counted as one more sample so that a new cache does not
+	// canonicalize every easy puzzle before it has measured the actual cost
+	private static final long ESTIMATED_CANONICALIZATION_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+	// Recorded for invariants whose grids turned out to have no canonical form
+	private static final long NOT_CANONICAL = -1L;
+
+	private final Map<String, byte[]> solutions;
+	private final Map<Long, Long> searchNanos;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong canonicalizations = new AtomicLong();
+	private final AtomicLong canonicalizationNanos = new AtomicLong();
+
+	/**
+	 * Creates an empty cache holding at most the given number of solutions.
+	 */
+	SudokuSolutionCache(int capacity)
+	{
+		if (capacity <= 0)
+		{
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+
+		this.solutions = new LinkedHashMap<String, byte[]>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+		this.searchNanos = new LinkedHashMap<Long, Long>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest)
+			{
+				return size() > capacity * SEARCHES_PER_SOLUTION;
+			}
+		};
+	}
+
+	/**
+	 * Returns whether or not a puzzle with the given invariant is worth canonicalizing, which is the
+	 * case if a puzzle with the same invariant was searched recently and its search took longer than
+	 * canonicalizing takes on average.
+	 */
+	boolean isWorthCanonicalizing(long invariant)
+	{
+		Long nanos;
+		synchronized (searchNanos)
+		{
+			nanos = searchNanos.get(invariant);
+		}
+
+		long averageNanos = (canonicalizationNanos.get() + ESTIMATED_CANONICALIZATION_NANOS) / (canonicalizations.get() + 1);
+		return nanos != null && nanos != NOT_CANONICAL && nanos > averageNanos;
+	}
+
+	/**
+	 * Records how long it took to search a puzzle with the given invariant.
+	 */
+	void recordSearch(long invariant, long nanos)
+	{
+		synchronized (searchNanos)
+		{
+			Long previous = searchNanos.get(invariant);
+			if (previous == null || previous != NOT_CANONICAL)
+			{
+				searchNanos.put(invariant, nanos);
+			}
+		}
+	}
+
+	/**
+	 * Records how long it took to canonicalize a puzzle with the given invariant. If the puzzle had
+	 * no canonical form, puzzles with the same invariant are not canonicalized again while the
+	 * invariant is remembered.
+	 */
+	void recordCanonicalization(long invariant, long nanos, boolean found)
+	{
+		canonicalizations.incrementAndGet();
+		canonicalizationNanos.addAndGet(nanos);
+		if (!found)
+		{
+			synchronized (searchNanos)
+			{
+				searchNanos.put(invariant, NOT_CANONICAL);
+			}
+		}
+	}
+
+	/**
+	 * Returns the canonical solution cached for the given canonical puzzle, or null if there is none.
+	 */
+	byte[] get(String key)
+	{
+		byte[] solution;
+		synchronized (solutions)
+		{
+			solution = solutions.get(key);
+		}
+
+		(solution != null ? hits : misses).incrementAndGet();
+		return solution;
+	}
+
+	/**
+	 * Caches the canonical solution of the given canonical puzzle, evicting the least recently used
+	 * entry if the cache is full.
+	 */
+	void put(String key, byte[] solution)
+	{
+		synchronized (solutions)
+		{
+			solutions.put(key, solution);
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which found a cached solution.
+	 */
+	long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a cached solution.
+	 */
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of cached solutions.
+	 */
+	int size()
+	{
+		synchronized (solutions)
+		{
+			return solutions.size();
+		}
+	}
+
+	/**
+	 * Writes every cached solution to the given file, from least to most recently used. The file
+	 * is written next to its destination first and then moved into place, so an interrupted save
+	 * never leaves a truncated cache behind.
+	 */
+	void save(Path file) throws IOException
+	{
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.US_ASCII))
+		{
+			synchronized (solutions)
+			{
+				for (Map.Entry<String, byte[]> entry : solutions.entrySet())
+				{
+					writer.write(entry.getKey());
+					writer.write(SEPARATOR);
+					writer.write(toDigits(entry.getValue()));
+					writer.newLine();
+				}
+			}
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Adds every solution saved in the given file to the cache. Does nothing if the file does not
+	 * exist, and skips any line which is not an 81 digit puzzle followed by a valid solution of it.
+	 */
+	void load(Path file) throws IOException
+	{
+		if (!Files.exists(file))
+		{
+			return;
+		}
+
+		int skipped = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				int separator = line.indexOf(SEPARATOR);
+				byte[] puzzle = separator < 0 ? null : fromDigits(line.substring(0, separator));
+				byte[] solution = separator < 0 ? null : fromDigits(line.substring(separator + 1));
+				if (puzzle == null || solution == null || !isSolution(puzzle, solution))
+				{
+					skipped++;
+					continue;
+				}
+
+				put(line.substring(0, separator), solution);
+			}
+		}
+
+		if (skipped > 0)
+		{
+			log.warn("Skipped {} malformed or invalid entries while loading the solution cache from {}", skipped, file);
+		}
+	}
+
+	/**
+	 * Returns whether or not the given solution is a complete, valid 9x9 grid which agrees with every
+	 * clue of the given puzzle.
+	 */
+	private static boolean isSolution(byte[] puzzle, byte[] solution)
+	{
+		if (puzzle.length != CELL_COUNT || solution.length != CELL_COUNT)
+		{
+			return false;
+		}
+
+		int[] rowMasks = new int[SIZE];
+		int[] columnMasks = new int[SIZE];
+		int[] squareMasks = new int[SIZE];
+		for (int index = 0; index < CELL_COUNT; index++)
+		{
+			int value = solution[index];
+			if (value == 0 || (puzzle[index] != 0 && puzzle[index] != value))
+			{
+				return false;
+			}
+
+			int bit = 1 << value;
+			int row = index / SIZE;
+			int column = index % SIZE;
+			int square = (row / SQUARE_SIZE) * SQUARE_SIZE + column / SQUARE_SIZE;
+			if (((rowMasks[row] | columnMasks[column] | squareMasks[square]) & bit) != 0)
+			{
+				return false;
+			}
+			rowMasks[row] |= bit;
+			columnMasks[column] |= bit;
+			squareMasks[square] |= bit;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the given grid as a string of digits.
+	 */
+	private static String toDigits(byte[] grid)
+	{
+		char[] digits = new char[grid.length];
+		for (int i = 0; i < grid.length; i++)
+		{
+			digits[i] = (char) ('0' + grid[i]);
+		}
+
+		return new String(digits);
+	}
+
+	/**
+	 * Parses a string of digits into a grid, or returns null if it contains anything else.
+	 */
+	private static byte[] fromDigits(String digits)
+	{
+		byte[] grid = new byte[digits.length()];
+		for (int i = 0; i < grid.length; i++)
+		{
+			char c = digits.charAt(i);
+			if (c < '0' || c > '9')
+			{
+				return null;
+			}
+			grid[i] = (byte) (c - '0');
+		}
+
+		return grid;
+	}
+}
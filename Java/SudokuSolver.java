@@ -0,0 +1,39 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * A strategy used by {@link SudokuBoard} to solve its puzzle. Solvers operate on a flat grid of
+ * cell values so that they can be benchmarked and reused independently of the widget layer.
+ */
+interface SudokuSolver
+{
+	/**
+	 * Fills the empty cells of the given grid with a solution.
+	 *
+	 * @param grid Cell values in row-major order, where 0 marks an empty cell.
+	 * @return Whether or not a solution was found. If no solution exists, the grid is left unmodified.
+	 */
+	default boolean solve(byte[] grid)
+	{
+		return solve(grid, SolveLimits.NONE).isSolved();
+	}
+
+	/**
+	 * Fills the empty cells of the given grid with a solution, giving up once any of the given
+	 * limits is reached.
+	 *
+	 * @param grid   Cell values in row-major order, where 0 marks an empty cell.
+	 * @param limits The limits on the work the search may do.
+	 * @return How the solve ended and how much work it did. Unless a solution was found, the grid
+	 * is left unmodified.
+	 */
+	SolveResult solve(byte[] grid, SolveLimits limits);
+
+	/**
+	 * Counts the solutions of the given grid, stopping as soon as the given limit is reached.
+	 *
+	 * @param grid  Cell values in row-major order, where 0 marks an empty cell. The grid is left unmodified.
+	 * @param limit The number of solutions after which to stop searching.
+	 * @return The number of solutions found, which is at most the limit.
+	 */
+	int countSolutions(byte[] grid, int limit);
+}
@@ -0,0 +1,65 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a file transfer from the remote server, including the hash of the transferred bytes.
+ */
+class TransferResult
+{
+	private final File file;
+	private final String hash;
+	private final long byteCount;
+	private final long elapsedNanos;
+
+	/**
+	 * Transfer result constructor
+	 *
+	 * @param file         the downloaded file
+	 * @param hash         hex encoded digest of the file contents
+	 * @param byteCount    number of bytes transferred
+	 * @param elapsedNanos time taken by the transfer
+	 */
+	TransferResult(File file, String hash, long byteCount, long elapsedNanos)
+	{
+		this.file = file;
+		this.hash = hash;
+		this.byteCount = byteCount;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	File getFile()
+	{
+		return file;
+	}
+
+	String getHash()
+	{
+		return hash;
+	}
+
+	long getByteCount()
+	{
+		return byteCount;
+	}
+
+	long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the average transfer rate achieved, in bytes per second
+	 */
+	long getBytesPerSecond()
+	{
+		return elapsedNanos == 0 ? 0 : (long) (byteCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+	}
+
+	@Override
+	public String toString()
+	{
+		return file.getName() + ": " + byteCount + " bytes in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms (" + getBytesPerSecond() / 1024 + " KiB/s)";
+	}
+}
@@ -7,18 +7,94 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * DAS update client
+ * <p>
+ * A verified package is unpacked to releases/&lt;hash&gt; in the project directory while the
+ * monitor keeps running. The monitor is then stopped, the "current" link is switched to the new
+ * release in one step, and the monitor is restarted on it. If the restart fails, "current" is
+ * switched back and the previous release is restarted.
+ * <p>
+ * The update.sh of the package is run with the release as its argument once the monitor has
+ * stopped. A package may publish update-v2.sh instead, which is run the same way before the
+ * monitor is stopped, so it must only prepare the release directory. The monitor is restarted with
+ * the restartMonitor.sh of the release, which is given the release as its argument, must start the
+ * monitor from "current" in the background and must exit with code 0 once it is up. A release
+ * without one is restarted by starting the local restartMonitor.sh, which is not waited on, so its
+ * restart is never rolled back. Scripts which run for more than 10 minutes have failed.
  *
  * @author Cody Woolsey
  */
 public class UpdateClient
 {
+	static final String PACKAGE_HASH_ALGORITHM = "SHA-256";
+	private static final String INSTALLED_PACKAGE_NAME = "installed.zip";
+	private static final String REMOTE_HASH_FINGERPRINT_PATH = "resource/remoteHash.fingerprint";
+	private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+	private static final long CHECKPOINT_INTERVAL = 4L * 1024 * 1024;
+	private static final int RANGE_SIZE = 1024 * 1024;
+	private static final int DEFAULT_DOWNLOAD_CHANNEL_COUNT = 4;
+	private static final int RANGES_AHEAD_PER_CHANNEL = 2;
+	private static final long RANGE_SHUTDOWN_TIMEOUT_SECONDS = 30L;
+	private static final int KEEPALIVE_INTERVAL_MILLIS = 30_000;
+	private static final int KEEPALIVE_COUNT_MAX = 3;
+	private static final long MONITOR_SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	private static final long SCRIPT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	private static final String UPDATE_SCRIPT_NAME = "update.sh";
+	private static final String RELEASE_SCRIPT_NAME = "update-v2.sh";
+	private static final String RESTART_SCRIPT_NAME = "restartMonitor.sh";
+	private static final String RELEASES_DIRECTORY_NAME = "releases";
+	private static final String CURRENT_RELEASE_LINK = "current";
+	private static final String PREVIOUS_RELEASE_LINK = "previous";
+	private static final int MAX_TRANSFER_ATTEMPTS = 5;
+	private static final long INITIAL_RETRY_DELAY_MILLIS = 2000L;
+	private static final long MAX_RETRY_DELAY_MILLIS = 60_000L;
+
+	private final byte[] transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
 	private JSch secureChannelManager = null;
 	private UserAuthInfo authData = null;
+	private Session sftpSession = null;
+	private ChannelSftp sftpChannel = null;
+	private String remoteHashFingerprint = null;
+	private long lastShutdownLatencyMillis = -1;
+	private long lastDowntimeMillis = -1;
+	private PackageEntryManifest packageEntryManifest = null;
+	private Path packageStagingDir = null;
+	private StreamingUnpacker packageUnpacker = null;
 	private Log logger;
 
 	/**
@@ -34,75 +110,489 @@ public class UpdateClient
 	}
 
 	/**
-	 * Downloads and installs an update package from the remote server if needed.
+	 * Downloads and installs an update package from the remote server if needed, then closes the
+	 * connection to the remote server.
+	 *
+	 * @return the outcome of the check
+	 */
+	public UpdateStatus installUpdateIfAvailable()
+	{
+		try
+		{
+			return checkForUpdate();
+		}
+		finally
+		{
+			disconnect();
+		}
+	}
+
+	/**
+	 * Downloads and installs an update package from the remote server if needed. The connection
+	 * to the remote server is kept open for the next check, and reopened if it has been dropped.
+	 *
+	 * @return the outcome of the check
 	 */
-	public void installUpdateIfAvailable()
+	UpdateStatus checkForUpdate()
 	{
 		String projectDir = Settings.getSettingNonNull("PROJECT_DIRECTORY_PATH");
 		String deploymentDir = Settings.getSettingNonNull("DEPLOYMENT_DIRECTORY_PATH");
 
-		Session sftpSession = null;
-		ChannelSftp sftpChannel = null;
 		try
 		{
-			sftpSession = initializeSession(authData);
-			sftpSession.connect();
-			sftpChannel = (ChannelSftp) sftpSession.openChannel("sftp");
-			sftpChannel.connect();
-			logger.info("SSH connection established with remote server.");
+			ensureConnected();
 
-			File hashFile = downloadFileFromRemoteServer(sftpChannel, deploymentDir + "/remoteHash.txt", "resource/remoteHash.txt");
-			if (!hashFile.exists())
+			// Nearly every check finds no update, so the hash file is only read once its attributes change
+			String remoteHashPath = deploymentDir + "/remoteHash.txt";
+			String fingerprint = getFingerprint(sftpChannel.stat(remoteHashPath));
+			if (fingerprint.equals(loadRemoteHashFingerprint()))
 			{
-				throw new IOException("Unable to transfer hash file from remote server.");
+				logger.info("No update available at this time.");
+				return UpdateStatus.NO_UPDATE;
 			}
+
 			String lastFileHash = FileUtil.fileToString("resource/hash.txt").trim();
-			String newFileHash = FileUtil.fileToString(hashFile.getAbsolutePath()).trim();
+			String newFileHash = readRemoteFile(remoteHashPath).trim();
 			if (lastFileHash.equalsIgnoreCase(newFileHash))
 			{
+				saveRemoteHashFingerprint(fingerprint);
 				logger.info("No update available at this time.");
-				System.exit(0);
+				return UpdateStatus.NO_UPDATE;
 			}
 
 			logger.info("Update available. Downloading... " + deploymentDir + "/release.zip");
-			File updatePackage = downloadFileFromRemoteServer(sftpChannel, deploymentDir + "/release.zip", projectDir + "/release.zip");
-
-			logger.info("Package retrieved. Sending termination signal to monitor...");
-			sendTerminationSignal();
-			logger.info("Monitor successfully terminated. Installing update...");
+			// When the files of the package are listed, they are unpacked while the package downloads
+			packageEntryManifest = readEntryManifest(deploymentDir + "/release.entries");
+			packageStagingDir = Paths.get(projectDir, RELEASES_DIRECTORY_NAME, newFileHash + ".staging");
+			TransferResult packageTransfer = downloadPackageDelta(deploymentDir, projectDir, newFileHash);
+			if (packageTransfer == null)
+			{
+				packageTransfer = downloadPackage(deploymentDir + "/release.zip", projectDir + "/release.zip", newFileHash);
+			}
+			File updatePackage = packageTransfer.getFile();
+			logger.info("Package retrieved. " + packageTransfer);
 
-			if (!newFileHash.equalsIgnoreCase(FileUtil.generateFileHash(updatePackage.getAbsolutePath())))
+			// The package is hashed as it is downloaded, so it can be verified before the monitor is stopped
+			if (!newFileHash.equalsIgnoreCase(packageTransfer.getHash()))
 			{
 				logger.error("Hash verification failure. Downloaded package hash did not match expected value. Aborting update...");
-				FileUtil.deleteFiles(Paths.get(updatePackage.getAbsolutePath(), hashFile.getAbsolutePath(), "updateInProgress"));
-				System.exit(0);
+				abortUnpacking();
+				FileUtil.deleteFiles(updatePackage.toPath());
+				FileUtil.deleteFiles(Paths.get("updateInProgress"));
+				return UpdateStatus.VERIFICATION_FAILED;
+			}
+
+			// The release is staged while the monitor keeps running on the current one
+			Path releaseDir = Paths.get(projectDir, RELEASES_DIRECTORY_NAME, newFileHash);
+			if (finishUnpacking(releaseDir) == null)
+			{
+				stageRelease(updatePackage.toPath(), releaseDir);
+			}
+			logger.info("Release staged at " + releaseDir + ".");
+
+			// A release script prepares the release while the monitor keeps running, and is used instead of update.sh
+			File updateScript = downloadOptionalFile(deploymentDir + "/" + RELEASE_SCRIPT_NAME, projectDir + "/" + RELEASE_SCRIPT_NAME);
+			boolean prepareWhileRunning = updateScript != null;
+			if (!prepareWhileRunning)
+			{
+				updateScript = downloadFileFromRemoteServer(sftpChannel, deploymentDir + "/" + UPDATE_SCRIPT_NAME, projectDir + "/" + UPDATE_SCRIPT_NAME);
+			}
+			UpdateStatus status;
+			try
+			{
+				status = installRelease(Paths.get(projectDir), releaseDir, updateScript, prepareWhileRunning);
+			}
+			finally
+			{
+				FileUtil.deleteFiles(updateScript.toPath());
+				FileUtil.deleteFiles(Paths.get("updateInProgress"));
 			}
 
-			File updateScript = downloadFileFromRemoteServer(sftpChannel, deploymentDir + "/update.sh", projectDir + "/update.sh");
-			logger.info("Update script retrieved. path: " + updateScript.getAbsolutePath());
-			Process updateProcess = Runtime.getRuntime().exec("sudo sh " + updateScript.getAbsolutePath());
-			updateProcess = Runtime.getRuntime().exec("sudo sh restartMonitor.sh");
-			logger.info("Execution finished.");
+			if (status != UpdateStatus.INSTALLED)
+			{
+				if (status == UpdateStatus.ROLLED_BACK)
+				{
+					// A release which had to be rolled back is not retried until another one is published
+					saveRemoteHashFingerprint(fingerprint);
+				}
+				FileUtil.deleteFiles(updatePackage.toPath());
+				return status;
+			}
 
 			FileUtil.writeStringToFile("resource/hash.txt", newFileHash);
-			FileUtil.deleteFiles(Paths.get(updatePackage.getAbsolutePath(), updateScript.getAbsolutePath(), hashFile.getAbsolutePath(), "updateInProgress"));
+			// The installed package is kept as the base of the next delta update
+			Files.move(updatePackage.toPath(), Paths.get(projectDir, INSTALLED_PACKAGE_NAME), StandardCopyOption.REPLACE_EXISTING);
+			pruneReleases(Paths.get(projectDir));
+			// Recorded last, so that an install which is not fully recorded is checked again
+			saveRemoteHashFingerprint(fingerprint);
+			return UpdateStatus.INSTALLED;
 		}
 		catch (Exception e)
 		{
+			abortUnpacking();
 			FileUtil.deleteFiles(Paths.get("updateInProgress"));
 			logger.error("An exception occurred while transferring the file from the remote server.", e);
+			// The connection may be what failed, so the next check starts with a new one
+			disconnect();
+			return UpdateStatus.FAILED;
 		}
-		finally
+	}
+
+	/**
+	 * Switches the installed release back to the previous one and restarts the monitor on it.
+	 *
+	 * @return the outcome of the rollback
+	 */
+	public UpdateStatus rollBack()
+	{
+		Path projectDir = Paths.get(Settings.getSettingNonNull("PROJECT_DIRECTORY_PATH"));
+		try
+		{
+			Path previousRelease = readReleaseLink(projectDir.resolve(PREVIOUS_RELEASE_LINK));
+			if (previousRelease == null)
+			{
+				logger.error("There is no previous release to roll back to.");
+				return UpdateStatus.FAILED;
+			}
+
+			long downtimeStart = System.nanoTime();
+			if (!sendTerminationSignal())
+			{
+				FileUtil.deleteFiles(Paths.get("updateInProgress"));
+				return UpdateStatus.MONITOR_TIMEOUT;
+			}
+
+			Path currentRelease = switchRelease(projectDir, previousRelease);
+			if (currentRelease != null)
+			{
+				pointReleaseLink(projectDir.resolve(PREVIOUS_RELEASE_LINK), currentRelease);
+			}
+			boolean restarted = restartMonitor(previousRelease);
+			lastDowntimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - downtimeStart);
+			logger.info("Rolled back to " + previousRelease + ". Monitor was down for " + lastDowntimeMillis + " ms.");
+			FileUtil.deleteFiles(Paths.get("updateInProgress"));
+			return restarted ? UpdateStatus.ROLLED_BACK : UpdateStatus.FAILED;
+		}
+		catch (Exception e)
+		{
+			FileUtil.deleteFiles(Paths.get("updateInProgress"));
+			logger.error("An exception occurred while rolling back the installed release.", e);
+			return UpdateStatus.FAILED;
+		}
+	}
+
+	/**
+	 * Installs a staged release: the monitor is stopped, the current release link is switched to
+	 * the release and the monitor is restarted on it. The update script of the package is run with
+	 * the release as its argument, before the monitor is stopped if the package published it as a
+	 * release script, and after otherwise.
+	 *
+	 * @param projectDir          the directory holding the releases and the release links
+	 * @param releaseDir          the staged release
+	 * @param updateScript        the downloaded update script
+	 * @param prepareWhileRunning whether or not the script is run while the monitor is running
+	 * @return INSTALLED, ROLLED_BACK if the old release was restored, or FAILED
+	 */
+	private UpdateStatus installRelease(Path projectDir, Path releaseDir, File updateScript, boolean prepareWhileRunning) throws IOException, InterruptedException
+	{
+		if (prepareWhileRunning)
+		{
+			logger.info("Release script retrieved. Preparing release... path: " + updateScript.getAbsolutePath());
+			if (!runScript("sudo", "sh", updateScript.getAbsolutePath(), releaseDir.toString()))
+			{
+				logger.error("Release script failed. Aborting update...");
+				StreamingUnpacker.deleteRecursively(releaseDir);
+				return UpdateStatus.FAILED;
+			}
+		}
+
+		logger.info("Sending termination signal to monitor...");
+		long downtimeStart = System.nanoTime();
+		if (!sendTerminationSignal())
+		{
+			return UpdateStatus.MONITOR_TIMEOUT;
+		}
+
+		UpdateStatus status;
+		logger.info("Monitor successfully terminated. Installing update... path: " + updateScript.getAbsolutePath());
+		if (!prepareWhileRunning && !runScript("sudo", "sh", updateScript.getAbsolutePath(), releaseDir.toString()))
+		{
+			logger.error("Update script failed. Restarting the installed release...");
+			restartInstalledRelease(projectDir);
+			status = UpdateStatus.FAILED;
+		}
+		else
+		{
+			status = switchReleaseAndRestart(projectDir, releaseDir);
+		}
+		lastDowntimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - downtimeStart);
+		logger.info("Monitor was down for " + lastDowntimeMillis + " ms.");
+		return status;
+	}
+
+	/**
+	 * Switches the installed release to the given one and restarts the monitor on it. If the restart
+	 * fails, switches back to the release installed before and restarts again.
+	 *
+	 * @param projectDir the directory holding the releases and the release links
+	 * @param releaseDir the release to be installed
+	 * @return INSTALLED, ROLLED_BACK if the old release was restored and restarted, or FAILED
+	 */
+	private UpdateStatus switchReleaseAndRestart(Path projectDir, Path releaseDir) throws IOException, InterruptedException
+	{
+		Path previousRelease;
+		try
+		{
+			previousRelease = switchRelease(projectDir, releaseDir);
+		}
+		catch (IOException e)
+		{
+			logger.error("Unable to switch to the new release. Restarting the installed release...", e);
+			restartInstalledRelease(projectDir);
+			return UpdateStatus.FAILED;
+		}
+
+		if (restartMonitor(releaseDir))
+		{
+			if (previousRelease != null)
+			{
+				pointReleaseLink(projectDir.resolve(PREVIOUS_RELEASE_LINK), previousRelease);
+			}
+			return UpdateStatus.INSTALLED;
+		}
+
+		if (previousRelease == null)
+		{
+			logger.error("Monitor did not restart on the new release, and there is no release to roll back to.");
+			return UpdateStatus.FAILED;
+		}
+
+		logger.error("Monitor did not restart on the new release. Rolling back...");
+		try
+		{
+			switchRelease(projectDir, previousRelease);
+		}
+		catch (IOException e)
+		{
+			logger.error("Unable to switch back to the previous release. Restarting the new release again...", e);
+			restartInstalledRelease(projectDir);
+			return UpdateStatus.FAILED;
+		}
+		if (!restartMonitor(previousRelease))
+		{
+			logger.error("Monitor did not restart on the previous release either.");
+			return UpdateStatus.FAILED;
+		}
+
+		return UpdateStatus.ROLLED_BACK;
+	}
+
+	/**
+	 * Restarts the monitor on whichever release the current release link points at. The link is
+	 * replaced in one step, so a failed switch leaves it where it was.
+	 */
+	private void restartInstalledRelease(Path projectDir) throws IOException, InterruptedException
+	{
+		Path installedRelease = readReleaseLink(projectDir.resolve(CURRENT_RELEASE_LINK));
+		if (installedRelease != null)
+		{
+			restartMonitor(installedRelease);
+		}
+		else
+		{
+			startMonitor();
+		}
+	}
+
+	/**
+	 * Restarts the monitor on the given release. A release which ships a restart script is restarted
+	 * with it, and the script is waited on. Otherwise the local restart script is started.
+	 *
+	 * @return whether or not the monitor was restarted, which is assumed when the local script is used
+	 */
+	private boolean restartMonitor(Path releaseDir) throws IOException, InterruptedException
+	{
+		Path restartScript = releaseDir.resolve(RESTART_SCRIPT_NAME);
+		if (!Files.isRegularFile(restartScript))
+		{
+			startMonitor();
+			return true;
+		}
+
+		return runScript("sudo", "sh", restartScript.toAbsolutePath().toString(), releaseDir.toAbsolutePath().toString());
+	}
+
+	/**
+	 * Starts the local restart script without waiting for it, since it may run the monitor in the foreground.
+	 */
+	private void startMonitor() throws IOException
+	{
+		new ProcessBuilder("sudo", "sh", RESTART_SCRIPT_NAME).inheritIO().start();
+	}
+
+	/**
+	 * Points the current release link at the given release with a single atomic rename.
+	 *
+	 * @return the release the link pointed at before, or null if there was none
+	 */
+	private static Path switchRelease(Path projectDir, Path releaseDir) throws IOException
+	{
+		Path currentLink = projectDir.resolve(CURRENT_RELEASE_LINK);
+		Path previousRelease = readReleaseLink(currentLink);
+		pointReleaseLink(currentLink, releaseDir);
+		return previousRelease;
+	}
+
+	/**
+	 * Atomically points the given link at the given release. The link is relative, so the project
+	 * directory can be moved.
+	 */
+	private static void pointReleaseLink(Path link, Path releaseDir) throws IOException
+	{
+		Path temporaryLink = link.resolveSibling(link.getFileName() + ".tmp");
+		Files.deleteIfExists(temporaryLink);
+		Files.createSymbolicLink(temporaryLink, Paths.get(RELEASES_DIRECTORY_NAME, releaseDir.getFileName().toString()));
+		// Renaming over the old link replaces it in one step, so the link always points at a release
+		Files.move(temporaryLink, link, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the release the given link points at, or null if there is no such link.
+	 */
+	private static Path readReleaseLink(Path link) throws IOException
+	{
+		if (!Files.isSymbolicLink(link))
+		{
+			return null;
+		}
+
+		return link.resolveSibling(Files.readSymbolicLink(link));
+	}
+
+	/**
+	 * Deletes every release except the current and previous ones.
+	 */
+	private void pruneReleases(Path projectDir) throws IOException
+	{
+		Path currentRelease = readReleaseLink(projectDir.resolve(CURRENT_RELEASE_LINK));
+		Path previousRelease = readReleaseLink(projectDir.resolve(PREVIOUS_RELEASE_LINK));
+		try (DirectoryStream<Path> releases = Files.newDirectoryStream(projectDir.resolve(RELEASES_DIRECTORY_NAME)))
 		{
-			if (sftpChannel != null)
+			for (Path release : releases)
 			{
-				sftpChannel.exit();
+				if (!release.equals(currentRelease) && !release.equals(previousRelease))
+				{
+					logger.info("Removing old release " + release + ".");
+					StreamingUnpacker.deleteRecursively(release);
+				}
 			}
-			if (sftpSession != null)
+		}
+	}
+
+	/**
+	 * Unpacks a verified package into the given release directory, through a staging directory
+	 * so that a partly unpacked release is never in place.
+	 */
+	private void stageRelease(Path packageFile, Path releaseDir) throws IOException
+	{
+		Path stagingDir = releaseDir.resolveSibling(releaseDir.getFileName() + ".staging").toAbsolutePath().normalize();
+		StreamingUnpacker.deleteRecursively(stagingDir);
+		Files.createDirectories(stagingDir);
+		try (ZipFile zipFile = new ZipFile(packageFile.toFile()))
+		{
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements())
 			{
-				sftpSession.disconnect();
+				ZipEntry zipEntry = zipEntries.nextElement();
+				Path target = stagingDir.resolve(zipEntry.getName()).normalize();
+				if (!target.startsWith(stagingDir))
+				{
+					throw new IOException("Package entry is outside of the package: " + zipEntry.getName());
+				}
+				if (zipEntry.isDirectory())
+				{
+					Files.createDirectories(target);
+					continue;
+				}
+
+				Files.createDirectories(target.getParent());
+				try (InputStream entryInputStream = zipFile.getInputStream(zipEntry))
+				{
+					Files.copy(entryInputStream, target, StandardCopyOption.REPLACE_EXISTING);
+				}
 			}
 		}
+
+		StreamingUnpacker.deleteRecursively(releaseDir);
+		Files.move(stagingDir, releaseDir, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Runs a script and waits for it to finish. Its output goes to the output of this process.
+	 *
+	 * @param command the script and its arguments
+	 * @return whether or not the script finished successfully in time
+	 */
+	private boolean runScript(String... command) throws IOException, InterruptedException
+	{
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		if (!process.waitFor(SCRIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			process.destroyForcibly();
+			logger.error("Script did not finish within the allotted time: " + String.join(" ", command));
+			return false;
+		}
+		if (process.exitValue() != 0)
+		{
+			logger.error("Script failed with exit code " + process.exitValue() + ": " + String.join(" ", command));
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Opens an SFTP channel on a new SSH session with the remote server.
+	 */
+	private void connect() throws JSchException
+	{
+		sftpSession = initializeSession(authData);
+		// Keepalives detect a dead connection between checks instead of during the next transfer
+		sftpSession.setServerAliveInterval(KEEPALIVE_INTERVAL_MILLIS);
+		sftpSession.setServerAliveCountMax(KEEPALIVE_COUNT_MAX);
+		sftpSession.connect();
+		sftpChannel = (ChannelSftp) sftpSession.openChannel("sftp");
+		sftpChannel.connect();
+		logger.info("SSH connection established with remote server.");
+	}
+
+	/**
+	 * Closes the SFTP channel and SSH session, if open.
+	 */
+	void disconnect()
+	{
+		if (sftpChannel != null)
+		{
+			sftpChannel.exit();
+			sftpChannel = null;
+		}
+		if (sftpSession != null)
+		{
+			sftpSession.disconnect();
+			sftpSession = null;
+		}
+	}
+
+	/**
+	 * Reconnects to the remote server if the session or channel has been dropped.
+	 */
+	private void ensureConnected() throws JSchException
+	{
+		if (sftpSession == null || !sftpSession.isConnected() || sftpChannel == null || !sftpChannel.isConnected())
+		{
+			disconnect();
+			connect();
+		}
 	}
 
 	/**
@@ -110,14 +600,89 @@ public class UpdateClient
 	 *
 	 * @param authData remote server authentication data
 	 */
-	private Session initializeSession(UserAuthInfo authData) throws JSchException
+	Session initializeSession(UserAuthInfo authData) throws JSchException
 	{
-		secureChannelManager.addIdentity(authData.getKeyFilePath(), authData.getPassphrase());
-		secureChannelManager.setKnownHosts("resource/hosts.txt");
+		if (secureChannelManager.getIdentityNames().isEmpty())
+		{
+			secureChannelManager.addIdentity(authData.getKeyFilePath(), authData.getPassphrase());
+			secureChannelManager.setKnownHosts("resource/hosts.txt");
+		}
 
 		return secureChannelManager.getSession(authData.getUsername(), authData.getRemoteHost());
 	}
 
+	/**
+	 * Downloads a file from the remote server through SFTP, if it exists.
+	 *
+	 * @return the downloaded file, or null if there is no such remote file
+	 */
+	private File downloadOptionalFile(String remoteFilePath, String localFilePath) throws SftpException, IOException
+	{
+		try
+		{
+			return downloadFileFromRemoteServer(sftpChannel, remoteFilePath, localFilePath);
+		}
+		catch (SftpException e)
+		{
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+			{
+				Files.deleteIfExists(Paths.get(localFilePath));
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a small text file from the remote server into memory.
+	 *
+	 * @param remoteFilePath the file to be read
+	 * @return the contents of the file
+	 */
+	private String readRemoteFile(String remoteFilePath) throws SftpException, IOException
+	{
+		try (InputStream fileInputStream = sftpChannel.get(remoteFilePath))
+		{
+			return new String(fileInputStream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Returns a fingerprint of a remote file which changes whenever the file is rewritten.
+	 */
+	private static String getFingerprint(SftpATTRS attributes)
+	{
+		return attributes.getSize() + " " + attributes.getMTime();
+	}
+
+	/**
+	 * Returns the fingerprint of the remote hash file when it was last handled, either because it
+	 * matched the installed hash or because its release was installed or rolled back, or an empty
+	 * string if it is not known.
+	 */
+	private String loadRemoteHashFingerprint() throws Exception
+	{
+		if (remoteHashFingerprint == null)
+		{
+			remoteHashFingerprint = Files.exists(Paths.get(REMOTE_HASH_FINGERPRINT_PATH)) ? FileUtil.fileToString(REMOTE_HASH_FINGERPRINT_PATH).trim() : "";
+		}
+
+		return remoteHashFingerprint;
+	}
+
+	/**
+	 * Records the fingerprint of a remote hash file which has been handled, so later checks can
+	 * skip reading it while it is unchanged.
+	 */
+	private void saveRemoteHashFingerprint(String fingerprint) throws Exception
+	{
+		if (!fingerprint.equals(remoteHashFingerprint))
+		{
+			FileUtil.writeStringToFile(REMOTE_HASH_FINGERPRINT_PATH, fingerprint);
+			remoteHashFingerprint = fingerprint;
+		}
+	}
+
 	/**
 	 * Downloads a file from the remote server through SFTP.
 	 *
@@ -127,41 +692,847 @@ public class UpdateClient
 	 */
 	private File downloadFileFromRemoteServer(ChannelSftp sftpChannel, String remoteFilePath, String localFilePath) throws SftpException, IOException
 	{
-		try (InputStream fileInputStream = new BufferedInputStream(sftpChannel.get(remoteFilePath)); OutputStream fileOutputStream = new FileOutputStream(localFilePath))
+		return transferFile(sftpChannel, remoteFilePath, localFilePath).getFile();
+	}
+
+	/**
+	 * Downloads a file from the remote server through SFTP, hashing its contents on the way so the
+	 * file never has to be read back from disk to be verified.
+	 *
+	 * @param remoteFilePath the file to be downloaded
+	 * @param localFilePath  the destination of the downloaded file
+	 * @return the downloaded file along with its hash and the transfer rate achieved
+	 */
+	private TransferResult transferFile(ChannelSftp sftpChannel, String remoteFilePath, String localFilePath) throws SftpException, IOException
+	{
+		MessageDigest digest = createPackageDigest();
+		long startTime = System.nanoTime();
+		long byteCount = 0;
+		try (InputStream fileInputStream = sftpChannel.get(remoteFilePath);
+			 FileChannel fileChannel = FileChannel.open(Paths.get(localFilePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
 		{
-			int b;
-			while ((b = fileInputStream.read()) != -1)
+			ByteBuffer buffer = ByteBuffer.wrap(transferBuffer);
+			int read;
+			while ((read = fileInputStream.read(transferBuffer)) != -1)
 			{
-				fileOutputStream.write(b);
+				digest.update(transferBuffer, 0, read);
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining())
+				{
+					fileChannel.write(buffer);
+				}
+				byteCount += read;
 			}
-			fileOutputStream.flush();
 		}
 
-		return new File(localFilePath);
+		return new TransferResult(new File(localFilePath), toHex(digest.digest()), byteCount, System.nanoTime() - startTime);
 	}
 
 	/**
-	 * Sends a termination signal to the program that needs to be updated. If the program doesn't terminate within 10 minutes, cancels update.
+	 * Downloads the update package, resuming from the checkpoint left by an earlier attempt if it
+	 * was for the same package. Failed attempts are retried with exponential backoff, reconnecting
+	 * to the remote server as needed.
+	 *
+	 * @param remoteFilePath the package to be downloaded
+	 * @param localFilePath  the destination of the downloaded package
+	 * @param expectedHash   the published hash of the package, which identifies the release
+	 * @return the downloaded package along with the hash of the whole file
 	 */
-	private void sendTerminationSignal() throws IOException, InterruptedException
+	TransferResult downloadPackage(String remoteFilePath, String localFilePath, String expectedHash) throws SftpException, IOException, JSchException, InterruptedException
 	{
-		Files.createFile(Paths.get("updateInProgress"));
-		File shutdownFile = new File(Settings.getSettingNonNull("PROJECT_DIRECTORY_PATH") + "/" + "shutdownCheck");
-		if (!shutdownFile.createNewFile())
+		long retryDelay = INITIAL_RETRY_DELAY_MILLIS;
+		for (int attempt = 1; ; attempt++)
 		{
-			throw new IOException("Unable to create shutdown signal file.");
+			try
+			{
+				ensureConnected();
+				return resumeTransfer(remoteFilePath, localFilePath, expectedHash);
+			}
+			catch (SftpException e)
+			{
+				if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE || e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED || attempt == MAX_TRANSFER_ATTEMPTS)
+				{
+					throw e;
+				}
+				logger.warn("Package transfer attempt " + attempt + " failed.", e);
+			}
+			catch (IOException | JSchException e)
+			{
+				if (attempt == MAX_TRANSFER_ATTEMPTS)
+				{
+					throw e;
+				}
+				logger.warn("Package transfer attempt " + attempt + " failed.", e);
+			}
+
+			// Jitter keeps devices which lost the link at the same time from retrying in lockstep
+			long delay = retryDelay / 2 + ThreadLocalRandom.current().nextLong(retryDelay / 2 + 1);
+			logger.info("Retrying package transfer in " + delay + " ms...");
+			disconnect();
+			Thread.sleep(delay);
+			retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
 		}
+	}
+
+	/**
+	 * Downloads the rest of the update package into a partial file, saving a checkpoint of the
+	 * durable offset and the hash of everything before it as it goes. Once complete, the partial
+	 * file is moved into place and the checkpoint is removed.
+	 *
+	 * @return the downloaded package, with the hash of the whole file and the rate of this attempt
+	 */
+	private TransferResult resumeTransfer(String remoteFilePath, String localFilePath, String expectedHash) throws SftpException, IOException, JSchException, InterruptedException
+	{
+		Path packageFile = Paths.get(localFilePath);
+		Path partFile = Paths.get(localFilePath + ".part");
+		Path checkpointFile = Paths.get(localFilePath + ".checkpoint");
 
-		long startTime = System.currentTimeMillis();
-		long endTime = startTime + (1000 * 60 * 10); // 10 minutes after start
-		while (shutdownFile.exists() && System.currentTimeMillis() <= endTime)
+		MessageDigest digest = createPackageDigest();
+		restartUnpacking();
+		long offset = restoreCheckpoint(partFile, checkpointFile, expectedHash, digest);
+		if (offset > 0)
 		{
-			Thread.sleep(1000L);
+			logger.info("Resuming package transfer at byte " + offset + ".");
 		}
-		if (startTime >= endTime)
+
+		long startTime = System.nanoTime();
+		long endOffset;
+		int channelCount = getDownloadChannelCount();
+		long size = channelCount > 1 ? sftpChannel.stat(remoteFilePath).getSize() : -1;
+		if (size - offset > RANGE_SIZE)
 		{
-			logger.error("Software did not terminate within the allotted time. Cancelling update.");
-			System.exit(0);
+			endOffset = transferRanges(remoteFilePath, partFile, checkpointFile, offset, size, expectedHash, digest, channelCount);
 		}
+		else
+		{
+			endOffset = transferSequentially(remoteFilePath, partFile, checkpointFile, offset, expectedHash, digest);
+		}
+
+		Files.move(partFile, packageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.deleteIfExists(checkpointFile);
+		return new TransferResult(packageFile.toFile(), toHex(digest.digest()), endOffset - offset, System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Appends the rest of the remote file to the partial file through the main SFTP channel.
+	 *
+	 * @return the size of the partial file once complete
+	 */
+	private long transferSequentially(String remoteFilePath, Path partFile, Path checkpointFile, long offset, String expectedHash, MessageDigest digest) throws SftpException, IOException
+	{
+		try (FileChannel fileChannel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			 InputStream fileInputStream = sftpChannel.get(remoteFilePath, null, offset))
+		{
+			fileChannel.truncate(offset);
+			fileChannel.position(offset);
+
+			ByteBuffer buffer = ByteBuffer.wrap(transferBuffer);
+			long checkpointOffset = offset;
+			int read;
+			while ((read = fileInputStream.read(transferBuffer)) != -1)
+			{
+				consumePackageBytes(digest, transferBuffer, 0, read);
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining())
+				{
+					fileChannel.write(buffer);
+				}
+				offset += read;
+
+				if (offset - checkpointOffset >= CHECKPOINT_INTERVAL)
+				{
+					// The data has to be on disk before a checkpoint may point past it
+					fileChannel.force(false);
+					saveCheckpoint(checkpointFile, offset, hashSoFar(digest), expectedHash);
+					checkpointOffset = offset;
+				}
+			}
+			fileChannel.force(false);
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Downloads the rest of the remote file in fixed size ranges over several SFTP channels of the
+	 * current session, since a single channel is held back by its window on high latency links.
+	 * Ranges are written at their own offsets of the preallocated partial file, and handed to this
+	 * thread as well, which hashes them in order as the completed prefix of the file grows and saves
+	 * checkpoints of it so an interrupted transfer resumes like a sequential one. Channels may only
+	 * run a few ranges ahead of that prefix, which bounds the ranges held in memory.
+	 *
+	 * @return the size of the partial file once complete
+	 */
+	private long transferRanges(String remoteFilePath, Path partFile, Path checkpointFile, long offset, long size, String expectedHash, MessageDigest digest, int channelCount) throws SftpException, IOException, JSchException, InterruptedException
+	{
+		int rangeCount = (int) ((size - offset + RANGE_SIZE - 1) / RANGE_SIZE);
+		int workerCount = Math.min(channelCount, rangeCount);
+		AtomicReferenceArray<CompletableFuture<byte[]>> rangeTransfers = new AtomicReferenceArray<>(rangeCount);
+		for (int i = 0; i < rangeCount; i++)
+		{
+			rangeTransfers.set(i, new CompletableFuture<>());
+		}
+		Semaphore rangeWindow = new Semaphore(workerCount * RANGES_AHEAD_PER_CHANNEL);
+		List<ChannelSftp> rangeChannels = Collections.synchronizedList(new ArrayList<>());
+
+		try (FileChannel fileChannel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			fileChannel.truncate(offset);
+			// Preallocate the file so ranges can be written in any order
+			fileChannel.write(ByteBuffer.allocate(1), size - 1);
+
+			ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+			AtomicInteger nextRange = new AtomicInteger();
+			try
+			{
+				for (int i = 0; i < workerCount; i++)
+				{
+					executor.execute(() -> transferRangesOnNewChannel(remoteFilePath, fileChannel, offset, size, nextRange, rangeWindow, rangeTransfers, rangeChannels));
+				}
+
+				long checkpointOffset = offset;
+				for (int i = 0; i < rangeCount; i++)
+				{
+					byte[] range = awaitRange(rangeTransfers.get(i));
+					// The contents are not needed once hashed, so only the ranges ahead stay in memory
+					rangeTransfers.set(i, null);
+					consumePackageBytes(digest, range, 0, range.length);
+					rangeWindow.release();
+
+					long prefixEnd = offset + (long) i * RANGE_SIZE + range.length;
+					if (prefixEnd - checkpointOffset >= CHECKPOINT_INTERVAL)
+					{
+						fileChannel.force(false);
+						saveCheckpoint(checkpointFile, prefixEnd, hashSoFar(digest), expectedHash);
+						checkpointOffset = prefixEnd;
+					}
+				}
+				fileChannel.force(false);
+			}
+			finally
+			{
+				// Transfers waiting for the window find no range left and stop
+				nextRange.set(rangeCount);
+				rangeWindow.release(workerCount);
+				stopRangeTransfers(executor, rangeChannels);
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Opens an SFTP channel and downloads ranges through it until none are left, completing the
+	 * transfer of each range with its contents. A failure fails the range being downloaded, which
+	 * the remaining channels leave to the next attempt.
+	 */
+	private void transferRangesOnNewChannel(String remoteFilePath, FileChannel fileChannel, long offset, long size, AtomicInteger nextRange, Semaphore rangeWindow, AtomicReferenceArray<CompletableFuture<byte[]>> rangeTransfers, List<ChannelSftp> rangeChannels)
+	{
+		int rangeCount = rangeTransfers.length();
+		int range = -1;
+		boolean connected = false;
+		ChannelSftp channel = null;
+		try
+		{
+			channel = (ChannelSftp) sftpSession.openChannel("sftp");
+			rangeChannels.add(channel);
+			channel.connect();
+			connected = true;
+
+			while (true)
+			{
+				rangeWindow.acquire();
+				range = nextRange.getAndIncrement();
+				if (range >= rangeCount)
+				{
+					return;
+				}
+
+				long rangeOffset = offset + (long) range * RANGE_SIZE;
+				byte[] contents = downloadRangeAt(channel, remoteFilePath, rangeOffset, (int) Math.min(RANGE_SIZE, size - rangeOffset), fileChannel);
+				rangeTransfers.get(range).complete(contents);
+				range = -1;
+			}
+		}
+		catch (Exception e)
+		{
+			if (range == -1 && connected)
+			{
+				// Only stopping the transfers interrupts a channel between ranges, and no range is left to fail
+				return;
+			}
+			if (range == -1)
+			{
+				range = nextRange.getAndIncrement();
+			}
+			if (range < rangeCount)
+			{
+				rangeTransfers.get(range).completeExceptionally(e);
+			}
+		}
+		finally
+		{
+			if (channel != null)
+			{
+				channel.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Downloads a range of the given remote file into the same range of the destination.
+	 *
+	 * @return the contents of the range
+	 */
+	private static byte[] downloadRangeAt(ChannelSftp channel, String remoteFilePath, long offset, int length, FileChannel destination) throws SftpException, IOException
+	{
+		byte[] contents = new byte[length];
+		try (InputStream fileInputStream = channel.get(remoteFilePath, null, offset))
+		{
+			int position = 0;
+			while (position < length)
+			{
+				int read = fileInputStream.read(contents, position, length - position);
+				if (read == -1)
+				{
+					throw new IOException("Remote file ended before offset " + (offset + length) + ".");
+				}
+				position += read;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(contents);
+		while (buffer.hasRemaining())
+		{
+			destination.write(buffer, offset + buffer.position());
+		}
+
+		return contents;
+	}
+
+	/**
+	 * Waits for the transfer of a range, rethrowing its failure as the exception types handled by
+	 * the retry loop.
+	 *
+	 * @return the contents of the range
+	 */
+	private static byte[] awaitRange(CompletableFuture<byte[]> rangeTransfer) throws SftpException, IOException, JSchException, InterruptedException
+	{
+		try
+		{
+			return rangeTransfer.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof SftpException)
+			{
+				throw (SftpException) cause;
+			}
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof JSchException)
+			{
+				throw (JSchException) cause;
+			}
+			throw new IOException("Range transfer failed.", cause);
+		}
+	}
+
+	/**
+	 * Stops the range transfers and waits for them to finish, so that none writes to the partial
+	 * file after it is closed. Disconnecting their channels unblocks transfers waiting on the link.
+	 */
+	private void stopRangeTransfers(ExecutorService executor, List<ChannelSftp> rangeChannels) throws InterruptedException
+	{
+		executor.shutdownNow();
+		synchronized (rangeChannels)
+		{
+			for (ChannelSftp channel : rangeChannels)
+			{
+				channel.disconnect();
+			}
+		}
+
+		if (!executor.awaitTermination(RANGE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+		{
+			logger.warn("Range transfers did not stop within " + RANGE_SHUTDOWN_TIMEOUT_SECONDS + " seconds.");
+		}
+	}
+
+	/**
+	 * Returns the number of SFTP channels packages are downloaded over, from the optional
+	 * DOWNLOAD_CHANNEL_COUNT setting. A single channel downloads packages sequentially.
+	 */
+	private static int getDownloadChannelCount()
+	{
+		return Math.max(1, getIntSetting("DOWNLOAD_CHANNEL_COUNT", DEFAULT_DOWNLOAD_CHANNEL_COUNT));
+	}
+
+	/**
+	 * Returns the value of an optional integer setting.
+	 *
+	 * @param name         the name of the setting
+	 * @param defaultValue the value used when the setting is missing or not a number
+	 */
+	static int getIntSetting(String name, int defaultValue)
+	{
+		try
+		{
+			return Integer.parseInt(Settings.getSettingNonNull(name).trim());
+		}
+		catch (RuntimeException e)
+		{
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Rebuilds the update package from the chunks of the installed package, downloading only the
+	 * chunks listed in the published manifest which the installed package does not contain.
+	 * Consecutive missing chunks are downloaded with a single read.
+	 *
+	 * @param deploymentDir the remote directory holding the package and its manifest
+	 * @param projectDir    the local directory holding the installed package
+	 * @param expectedHash  the published hash of the package
+	 * @return the rebuilt and verified package, or null if it has to be downloaded in full
+	 */
+	private TransferResult downloadPackageDelta(String deploymentDir, String projectDir, String expectedHash) throws InterruptedException
+	{
+		Path basePackage = Paths.get(projectDir, INSTALLED_PACKAGE_NAME);
+		Path packageFile = Paths.get(projectDir, "release.zip");
+		Path deltaFile = Paths.get(projectDir, "release.zip.delta");
+		if (!Files.exists(basePackage))
+		{
+			return null;
+		}
+
+		try
+		{
+			ChunkManifest manifest;
+			try (InputStream manifestInputStream = sftpChannel.get(deploymentDir + "/release.manifest"))
+			{
+				manifest = ChunkManifest.read(manifestInputStream);
+			}
+			if (!expectedHash.equalsIgnoreCase(manifest.getPackageHash()))
+			{
+				logger.warn("Chunk manifest does not describe the published package. Downloading the full package...");
+				return null;
+			}
+
+			restartUnpacking();
+			Map<String, ChunkManifest.Chunk> localChunks = new HashMap<>();
+			for (ChunkManifest.Chunk chunk : ChunkManifest.splitIntoChunks(basePackage, null))
+			{
+				localChunks.putIfAbsent(chunk.getHash(), chunk);
+			}
+
+			MessageDigest digest = createPackageDigest();
+			long startTime = System.nanoTime();
+			long downloadedBytes = 0;
+			try (FileChannel baseChannel = FileChannel.open(basePackage, StandardOpenOption.READ);
+				 FileChannel deltaChannel = FileChannel.open(deltaFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				List<ChunkManifest.Chunk> chunks = manifest.getChunks();
+				int index = 0;
+				while (index < chunks.size())
+				{
+					ChunkManifest.Chunk localChunk = localChunks.get(chunks.get(index).getHash());
+					if (localChunk != null)
+					{
+						copyRange(baseChannel, localChunk.getOffset(), localChunk.getLength(), deltaChannel, digest);
+						index++;
+						continue;
+					}
+
+					int end = index + 1;
+					while (end < chunks.size() && !localChunks.containsKey(chunks.get(end).getHash()))
+					{
+						end++;
+					}
+
+					ChunkManifest.Chunk lastChunk = chunks.get(end - 1);
+					long rangeOffset = chunks.get(index).getOffset();
+					long rangeLength = lastChunk.getOffset() + lastChunk.getLength() - rangeOffset;
+					downloadRange(deploymentDir + "/release.zip", rangeOffset, rangeLength, deltaChannel, digest);
+					downloadedBytes += rangeLength;
+					index = end;
+				}
+				deltaChannel.force(false);
+			}
+
+			String hash = toHex(digest.digest());
+			if (!expectedHash.equalsIgnoreCase(hash))
+			{
+				logger.warn("Package rebuilt from chunks did not match the expected hash. Downloading the full package...");
+				return null;
+			}
+
+			Files.move(deltaFile, packageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Package rebuilt from " + (manifest.getPackageSize() - downloadedBytes) + " installed bytes and " + downloadedBytes + " downloaded bytes.");
+			return new TransferResult(packageFile.toFile(), hash, downloadedBytes, System.nanoTime() - startTime);
+		}
+		catch (SftpException e)
+		{
+			if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)
+			{
+				logger.warn("Delta update failed. Downloading the full package...", e);
+			}
+			return null;
+		}
+		catch (IOException e)
+		{
+			logger.warn("Delta update failed. Downloading the full package...", e);
+			return null;
+		}
+		finally
+		{
+			// Only left behind if the package was not rebuilt
+			FileUtil.deleteFiles(deltaFile);
+		}
+	}
+
+	/**
+	 * Appends a range of the given file to the destination, feeding it to the given digest.
+	 */
+	private void copyRange(FileChannel source, long offset, int length, FileChannel destination, MessageDigest digest) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(transferBuffer, 0, Math.min(length, transferBuffer.length));
+		long position = offset;
+		long end = offset + length;
+		while (position < end)
+		{
+			buffer.clear().limit((int) Math.min(transferBuffer.length, end - position));
+			int read = source.read(buffer, position);
+			if (read == -1)
+			{
+				throw new IOException("Installed package ended before offset " + end + ".");
+			}
+
+			consumePackageBytes(digest, transferBuffer, 0, read);
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				destination.write(buffer);
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Appends a range of the given remote file to the destination, feeding it to the given digest.
+	 */
+	private void downloadRange(String remoteFilePath, long offset, long length, FileChannel destination, MessageDigest digest) throws SftpException, IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(transferBuffer);
+		try (InputStream fileInputStream = sftpChannel.get(remoteFilePath, null, offset))
+		{
+			long remaining = length;
+			while (remaining > 0)
+			{
+				int read = fileInputStream.read(transferBuffer, 0, (int) Math.min(transferBuffer.length, remaining));
+				if (read == -1)
+				{
+					throw new IOException("Remote package ended before offset " + (offset + length) + ".");
+				}
+
+				consumePackageBytes(digest, transferBuffer, 0, read);
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining())
+				{
+					destination.write(buffer);
+				}
+				remaining -= read;
+			}
+		}
+	}
+
+	/**
+	 * Reads the list of files of the update package, if one is published.
+	 *
+	 * @return the list of files, or null if it is not published
+	 */
+	private PackageEntryManifest readEntryManifest(String remoteFilePath) throws SftpException, IOException
+	{
+		try (InputStream manifestInputStream = sftpChannel.get(remoteFilePath))
+		{
+			return PackageEntryManifest.read(manifestInputStream);
+		}
+		catch (SftpException e)
+		{
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+			{
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Feeds the next bytes of the update package to its digest, and to the unpacker if the package
+	 * is unpacked while it downloads. Bytes must be given in package order.
+	 */
+	private void consumePackageBytes(MessageDigest digest, byte[] bytes, int offset, int length)
+	{
+		digest.update(bytes, offset, length);
+		if (packageUnpacker != null)
+		{
+			packageUnpacker.update(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Starts unpacking the update package from its first byte, discarding whatever an earlier
+	 * attempt unpacked. Does nothing if the files of the package are not listed.
+	 */
+	private void restartUnpacking() throws IOException
+	{
+		abortUnpacking();
+		if (packageEntryManifest != null)
+		{
+			packageUnpacker = new StreamingUnpacker(packageEntryManifest, packageStagingDir);
+		}
+	}
+
+	/**
+	 * Stops unpacking the update package, if it is being unpacked.
+	 */
+	private void abortUnpacking()
+	{
+		if (packageUnpacker != null)
+		{
+			try
+			{
+				packageUnpacker.abort();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			packageUnpacker = null;
+		}
+	}
+
+	/**
+	 * Moves the unpacked update package into its release directory. Must only be called once the
+	 * package has been verified.
+	 *
+	 * @return the release directory, or null if the package was not unpacked while downloading
+	 */
+	private Path finishUnpacking(Path releaseDir) throws InterruptedException
+	{
+		if (packageUnpacker == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			packageUnpacker.finish(releaseDir);
+			return releaseDir;
+		}
+		catch (IOException e)
+		{
+			logger.warn("Package could not be unpacked while downloading. Unpacking the downloaded package instead...", e);
+			return null;
+		}
+		finally
+		{
+			packageUnpacker = null;
+		}
+	}
+
+	/**
+	 * Restores the digest of a partial download from its checkpoint. Digests cannot export their
+	 * state, so the part file is hashed up to the checkpointed offset and compared with the hash
+	 * stored in the checkpoint, which also catches part files damaged since.
+	 *
+	 * @return the offset to resume from, or 0 if the download has to start over
+	 */
+	private long restoreCheckpoint(Path partFile, Path checkpointFile, String expectedHash, MessageDigest digest) throws IOException
+	{
+		if (!Files.exists(checkpointFile) || !Files.exists(partFile))
+		{
+			return 0;
+		}
+
+		Properties checkpoint = new Properties();
+		try (Reader reader = Files.newBufferedReader(checkpointFile))
+		{
+			checkpoint.load(reader);
+		}
+
+		long offset;
+		try
+		{
+			offset = Long.parseLong(checkpoint.getProperty("offset", "0"));
+		}
+		catch (NumberFormatException e)
+		{
+			offset = -1;
+		}
+		if (offset <= 0 || !expectedHash.equalsIgnoreCase(checkpoint.getProperty("expectedHash")) || Files.size(partFile) < offset)
+		{
+			logger.info("Discarding partial download which does not match the current package.");
+			return 0;
+		}
+
+		try (InputStream partInputStream = Files.newInputStream(partFile))
+		{
+			long remaining = offset;
+			while (remaining > 0)
+			{
+				int read = partInputStream.read(transferBuffer, 0, (int) Math.min(transferBuffer.length, remaining));
+				if (read == -1)
+				{
+					break;
+				}
+				consumePackageBytes(digest, transferBuffer, 0, read);
+				remaining -= read;
+			}
+		}
+
+		if (!hashSoFar(digest).equalsIgnoreCase(checkpoint.getProperty("prefixHash")))
+		{
+			logger.warn("Partial download does not match its checkpoint. Starting over...");
+			digest.reset();
+			restartUnpacking();
+			return 0;
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Atomically replaces the checkpoint of a partial download.
+	 */
+	private static void saveCheckpoint(Path checkpointFile, long offset, String prefixHash, String expectedHash) throws IOException
+	{
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("offset", Long.toString(offset));
+		checkpoint.setProperty("prefixHash", prefixHash);
+		checkpoint.setProperty("expectedHash", expectedHash);
+
+		Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tempFile))
+		{
+			checkpoint.store(writer, null);
+		}
+		Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the hash of the bytes given to the digest so far, without finishing the digest.
+	 */
+	private static String hashSoFar(MessageDigest digest) throws IOException
+	{
+		try
+		{
+			return toHex(((MessageDigest) digest.clone()).digest());
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new IOException("Hash algorithm " + PACKAGE_HASH_ALGORITHM + " cannot be checkpointed.", e);
+		}
+	}
+
+	/**
+	 * Creates a digest of the algorithm used for the published package hashes.
+	 */
+	static MessageDigest createPackageDigest() throws IOException
+	{
+		try
+		{
+			return MessageDigest.getInstance(PACKAGE_HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException("Hash algorithm " + PACKAGE_HASH_ALGORITHM + " is not available.", e);
+		}
+	}
+
+	/**
+	 * Encodes the given bytes as lowercase hexadecimal.
+	 */
+	static String toHex(byte[] bytes)
+	{
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Sends a termination signal to the program that needs to be updated, and waits for it to
+	 * acknowledge by deleting the signal file. The project directory is watched for the deletion,
+	 * so the update goes ahead as soon as the program has terminated. If the program doesn't
+	 * terminate within 10 minutes, the signal is withdrawn and the update is cancelled.
+	 *
+	 * @return whether or not the program terminated in time
+	 */
+	private boolean sendTerminationSignal() throws IOException, InterruptedException
+	{
+		Files.createFile(Paths.get("updateInProgress"));
+		Path shutdownFile = Paths.get(Settings.getSettingNonNull("PROJECT_DIRECTORY_PATH"), "shutdownCheck").toAbsolutePath();
+		try (WatchService watchService = shutdownFile.getFileSystem().newWatchService())
+		{
+			// The directory is watched before the file is created, so the deletion can't be missed
+			shutdownFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_DELETE);
+			try
+			{
+				Files.createFile(shutdownFile);
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				throw new IOException("Unable to create shutdown signal file.", e);
+			}
+
+			long startTime = System.nanoTime();
+			long endTime = startTime + TimeUnit.MILLISECONDS.toNanos(MONITOR_SHUTDOWN_TIMEOUT_MILLIS);
+			while (Files.exists(shutdownFile))
+			{
+				long remaining = endTime - System.nanoTime();
+				if (remaining <= 0)
+				{
+					logger.error("Software did not terminate within the allotted time. Cancelling update.");
+					Files.deleteIfExists(shutdownFile);
+					return false;
+				}
+
+				WatchKey key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+				if (key != null)
+				{
+					key.pollEvents();
+					key.reset();
+				}
+			}
+
+			lastShutdownLatencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+			logger.info("Monitor acknowledged termination signal in " + lastShutdownLatencyMillis + " ms.");
+			return true;
+		}
+	}
+
+	/**
+	 * @return the time the monitor was down during the last install or rollback, from the
+	 * termination signal until its restart finished, or -1 if there has been none
+	 */
+	public long getLastDowntimeMillis()
+	{
+		return lastDowntimeMillis;
+	}
+
+	/**
+	 * @return the time the monitor took to acknowledge the last termination signal, or -1 if it
+	 * has not acknowledged one
+	 */
+	public long getLastShutdownLatencyMillis()
+	{
+		return lastShutdownLatencyMillis;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,178 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.Session;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the download of a package in ranges over several SFTP channels, against an in-process
+ * SFTP server whose reads can be delayed or failed.
+ */
+class UpdateClientRangeTransferTest
+{
+	private static final int RANGE_SIZE = 1024 * 1024;
+	private static final int CHECKPOINT_INTERVAL = 4 * RANGE_SIZE;
+	private static final int PACKAGE_SIZE = 12 * RANGE_SIZE + 12345;
+
+	@Test
+	void assemblesRangesArrivingOutOfOrder() throws Exception
+	{
+		ReadInterceptor interceptor = new ReadInterceptor();
+		// The channel with the first range stalls, so later ranges arrive before it
+		interceptor.delayedOffset = 0;
+		download(interceptor);
+
+		List<Long> completedReads = interceptor.getCompletedReads();
+		assertNotEquals(0L, (long) completedReads.get(0));
+		assertTrue(completedReads.indexOf(0L) > completedReads.indexOf((long) RANGE_SIZE), "Reads completed in " + completedReads);
+	}
+
+	@Test
+	void retriesAfterChannelFailsPartway() throws Exception
+	{
+		ReadInterceptor interceptor = new ReadInterceptor();
+		interceptor.failingOffset = 2L * RANGE_SIZE + 64 * 1024;
+		download(interceptor);
+
+		assertEquals(0, interceptor.failuresLeft.get());
+	}
+
+	@Test
+	void resumesFromCheckpoint() throws Exception
+	{
+		ReadInterceptor interceptor = new ReadInterceptor();
+		interceptor.failingOffset = 9L * RANGE_SIZE;
+		download(interceptor);
+
+		assertEquals(0, interceptor.failuresLeft.get());
+		List<Long> readsAfterFailure = interceptor.getReadsAfterFailure();
+		assertFalse(readsAfterFailure.isEmpty());
+		// Everything before the last checkpoint was kept, so the retry starts past it
+		assertTrue(Collections.min(readsAfterFailure) >= CHECKPOINT_INTERVAL, "Reads after the failure start at " + Collections.min(readsAfterFailure));
+	}
+
+	/**
+	 * Downloads a random package from a new server with the given interceptor, and checks the
+	 * downloaded package and its hash.
+	 */
+	private static void download(ReadInterceptor interceptor) throws Exception
+	{
+		Path remoteDir = Files.createTempDirectory("remote");
+		Path localDir = Files.createTempDirectory("local");
+		byte[] contents = new byte[PACKAGE_SIZE];
+		new Random(PACKAGE_SIZE).nextBytes(contents);
+		Files.write(remoteDir.resolve("release.zip"), contents);
+		String expectedHash = UpdateClient.toHex(MessageDigest.getInstance(UpdateClient.PACKAGE_HASH_ALGORITHM).digest(contents));
+
+		try (EmbeddedSshServer server = new EmbeddedSshServer(remoteDir, interceptor))
+		{
+			JSch secureChannelManager = server.createSecureChannelManager();
+			UpdateClient client = new UpdateClient(null)
+			{
+				@Override
+				Session initializeSession(UserAuthInfo authData) throws com.jcraft.jsch.JSchException
+				{
+					return secureChannelManager.getSession(EmbeddedSshServer.USERNAME, EmbeddedSshServer.HOST, server.getPort());
+				}
+			};
+			try
+			{
+				TransferResult result = client.downloadPackage("/release.zip", localDir.resolve("release.zip").toString(), expectedHash);
+				assertEquals(expectedHash, result.getHash());
+				assertArrayEquals(contents, Files.readAllBytes(result.getFile().toPath()));
+				assertFalse(Files.exists(localDir.resolve("release.zip.part")));
+				assertFalse(Files.exists(localDir.resolve("release.zip.checkpoint")));
+			}
+			finally
+			{
+				client.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Delays the read at one offset, and fails the first read at or past another.
+	 */
+	private static class ReadInterceptor implements SftpEventListener
+	{
+		private static final long DELAY_MILLIS = 500L;
+
+		private final List<Long> completedReads = Collections.synchronizedList(new ArrayList<>());
+		private final List<Long> readsAfterFailure = Collections.synchronizedList(new ArrayList<>());
+		private final AtomicInteger failuresLeft = new AtomicInteger(1);
+		private volatile long delayedOffset = -1;
+		private volatile long failingOffset = Long.MAX_VALUE;
+		private volatile boolean failed = false;
+
+		@Override
+		public void reading(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data, int dataOffset, int dataLen) throws IOException
+		{
+			if (failed)
+			{
+				readsAfterFailure.add(offset);
+			}
+			if (offset == delayedOffset)
+			{
+				delayedOffset = -1;
+				try
+				{
+					Thread.sleep(DELAY_MILLIS);
+				}
+				catch (InterruptedException e)
+				{
+					throw new InterruptedIOException();
+				}
+			}
+			if (offset >= failingOffset && failuresLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0)
+			{
+				failed = true;
+				throw new IOException("Injected read failure at " + offset);
+			}
+		}
+
+		@Override
+		public void read(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data, int dataOffset, int dataLen, int readLen, Throwable thrown)
+		{
+			if (thrown == null)
+			{
+				completedReads.add(offset);
+			}
+		}
+
+		List<Long> getCompletedReads()
+		{
+			synchronized (completedReads)
+			{
+				return new ArrayList<>(completedReads);
+			}
+		}
+
+		List<Long> getReadsAfterFailure()
+		{
+			synchronized (readsAfterFailure)
+			{
+				return new ArrayList<>(readsAfterFailure);
+			}
+		}
+	}
+}
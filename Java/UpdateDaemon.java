@@ -0,0 +1,128 @@
+package com.cwools.raspberrypi.update.ssh;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an update client as a long-running process which keeps its SSH session open between
+ * checks, so a check costs a small remote read rather than a JVM start, key parsing and an SSH
+ * handshake.
+ * <p>
+ * Checks run on a single thread, so the client is never used concurrently. Every delay is drawn
+ * between half and one and a half times the check interval, which keeps a fleet of devices
+ * started together from hitting the remote server at the same moment.
+ */
+public class UpdateDaemon
+{
+	private static final int DEFAULT_CHECK_INTERVAL_SECONDS = 300;
+
+	private final UpdateClient updateClient;
+	private final long checkIntervalMillis;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private volatile boolean stopped = false;
+	private volatile UpdateStatus lastStatus = null;
+	private Log logger;
+
+	/**
+	 * Update daemon constructor, checking at the interval of the optional
+	 * UPDATE_CHECK_INTERVAL_SECONDS setting.
+	 *
+	 * @param updateClient the client used for every check
+	 */
+	public UpdateDaemon(UpdateClient updateClient)
+	{
+		this(updateClient, TimeUnit.SECONDS.toMillis(UpdateClient.getIntSetting("UPDATE_CHECK_INTERVAL_SECONDS", DEFAULT_CHECK_INTERVAL_SECONDS)));
+	}
+
+	/**
+	 * Update daemon constructor
+	 *
+	 * @param updateClient        the client used for every check
+	 * @param checkIntervalMillis the average time between checks
+	 */
+	public UpdateDaemon(UpdateClient updateClient, long checkIntervalMillis)
+	{
+		if (checkIntervalMillis <= 0)
+		{
+			throw new IllegalArgumentException("Check interval must be positive: " + checkIntervalMillis);
+		}
+
+		this.updateClient = updateClient;
+		this.checkIntervalMillis = checkIntervalMillis;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, "update-daemon"));
+		this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.logger = LogFactory.getLog(UpdateDaemon.class);
+	}
+
+	/**
+	 * Schedules the first check.
+	 */
+	public void start()
+	{
+		logger.info("Update daemon started. Checking for updates about every " + TimeUnit.MILLISECONDS.toSeconds(checkIntervalMillis) + " seconds.");
+		scheduleNextCheck();
+	}
+
+	/**
+	 * Cancels the next check and closes the connection to the remote server once a running check
+	 * has finished.
+	 */
+	public void stop()
+	{
+		stopped = true;
+		scheduler.execute(updateClient::disconnect);
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Waits for the daemon to finish after it has been stopped.
+	 *
+	 * @return whether or not the daemon finished within the given time
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return scheduler.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return the outcome of the last check, or null if no check has finished yet
+	 */
+	public UpdateStatus getLastStatus()
+	{
+		return lastStatus;
+	}
+
+	/**
+	 * Checks for an update, then schedules the next check.
+	 */
+	private void runCheck()
+	{
+		try
+		{
+			lastStatus = updateClient.checkForUpdate();
+			logger.info("Update check finished: " + lastStatus);
+		}
+		catch (RuntimeException e)
+		{
+			lastStatus = UpdateStatus.FAILED;
+			logger.error("Update check failed.", e);
+		}
+		finally
+		{
+			if (!stopped)
+			{
+				scheduleNextCheck();
+			}
+		}
+	}
+
+	private void scheduleNextCheck()
+	{
+		long delay = checkIntervalMillis / 2 + ThreadLocalRandom.current().nextLong(checkIntervalMillis + 1);
+		scheduler.schedule(this::runCheck, delay, TimeUnit.MILLISECONDS);
+	}
+}
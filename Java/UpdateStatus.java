@@ -0,0 +1,30 @@
+package com.cwools.raspberrypi.update.ssh;
+
+/**
+ * Outcome of an update check, with the exit code reported for it when the update client is run
+ * as a one-shot process.
+ */
+public enum UpdateStatus
+{
+	NO_UPDATE(0),
+	INSTALLED(0),
+	VERIFICATION_FAILED(2),
+	MONITOR_TIMEOUT(3),
+	ROLLED_BACK(4),
+	FAILED(1);
+
+	private final int exitCode;
+
+	UpdateStatus(int exitCode)
+	{
+		this.exitCode = exitCode;
+	}
+
+	/**
+	 * @return the process exit code for this outcome
+	 */
+	public int getExitCode()
+	{
+		return exitCode;
+	}
+}
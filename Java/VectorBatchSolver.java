@@ -0,0 +1,110 @@
+package com.cwools.plugins.sudoku;
+
+/**
+ * Experimental batch solver which fills in the singles of many boards at once with SIMD
+ * instructions, through {@link VectorSinglesPropagator}. Boards which singles alone do not complete
+ * are finished by a scalar {@link DepthFirstSolver}, starting from the propagated grid.
+ * <p>
+ * The Vector API is still incubating, so the JVM must be started with
+ * {@code --add-modules jdk.incubator.vector}. Without it, or on hardware with narrow vectors,
+ * every board is solved by the scalar solver instead, which gives the same results.
+ */
+class VectorBatchSolver
+{
+	private static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final DepthFirstSolver scalarSolver;
+	private final VectorSinglesPropagator propagator;
+	private final byte[] scratch;
+
+	/**
+	 * Creates a batch solver for standard 9x9 grids.
+	 */
+	VectorBatchSolver()
+	{
+		this(SudokuLayout.STANDARD, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a batch solver for grids of the given layout which propagates blocks of roughly the
+	 * given number of boards at once.
+	 */
+	VectorBatchSolver(SudokuLayout layout, int blockSize)
+	{
+		this.scalarSolver = new DepthFirstSolver(layout);
+		this.propagator = createPropagator(layout, blockSize);
+		this.scratch = new byte[layout.cellCount];
+	}
+
+	/**
+	 * Creates a vector propagator, or returns null if the Vector API cannot be used.
+	 */
+	private static VectorSinglesPropagator createPropagator(SudokuLayout layout, int blockSize)
+	{
+		try
+		{
+			return VectorSinglesPropagator.isSupported() ? new VectorSinglesPropagator(layout, blockSize) : null;
+		}
+		catch (LinkageError e)
+		{
+			// The jdk.incubator.vector module has not been added to the JVM
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether or not boards are propagated with vector instructions.
+	 */
+	boolean isVectorized()
+	{
+		return propagator != null;
+	}
+
+	/**
+	 * Solves every given grid in place. Grids without a solution are left unmodified.
+	 *
+	 * @return The number of grids which were solved.
+	 */
+	int solveAll(byte[][] grids)
+	{
+		if (propagator == null)
+		{
+			int solved = 0;
+			for (byte[] grid : grids)
+			{
+				if (scalarSolver.solve(grid))
+				{
+					solved++;
+				}
+			}
+
+			return solved;
+		}
+
+		int solved = 0;
+		int blockSize = propagator.getBlockSize();
+		for (int from = 0; from < grids.length; from += blockSize)
+		{
+			propagator.load(grids, from);
+			propagator.propagate();
+
+			int count = Math.min(blockSize, grids.length - from);
+			for (int lane = 0; lane < count; lane++)
+			{
+				if (propagator.isFailed(lane))
+				{
+					continue;
+				}
+
+				boolean complete = propagator.store(lane, scratch);
+				if (complete || scalarSolver.solve(scratch))
+				{
+					System.arraycopy(scratch, 0, grids[from + lane], 0, scratch.length);
+					solved++;
+				}
+			}
+		}
+
+		return solved;
+	}
+}
@@ -0,0 +1,267 @@
+package com.cwools.plugins.sudoku;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Fills in the naked and hidden singles of a block of boards at once using the incubating Vector
+ * API. The boards are laid out in structure-of-arrays form: every cell and every row, column and
+ * square mask is an array with one lane per board, so a single vector operation computes the
+ * candidates of the same cell on as many boards as the species has lanes.
+ * <p>
+ * Cells hold the bit of their value rather than the value itself, so placing a value is a plain
+ * OR into the cell and its three masks. Lanes which do not need a change are ORed with zero, which
+ * keeps every step branch-free across the lanes of a group.
+ * <p>
+ * This class must only be loaded through {@link VectorBatchSolver}, which falls back to scalar
+ * solving when the jdk.incubator.vector module is not available.
+ */
+class VectorSinglesPropagator
+{
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int MIN_LANES = 4;
+
+	private final SudokuLayout layout;
+	private final int blockSize;
+	private final int[] cells;
+	private final int[] rowMasks;
+	private final int[] columnMasks;
+	private final int[] squareMasks;
+	private final boolean[] failed;
+	private int loadedLanes;
+
+	/**
+	 * Creates a propagator for blocks of boards of the given layout. The block size is rounded up
+	 * to a whole number of vectors.
+	 */
+	VectorSinglesPropagator(SudokuLayout layout, int blockSize)
+	{
+		this.layout = layout;
+		this.blockSize = SPECIES.loopBound(blockSize + SPECIES.length() - 1);
+		this.cells = new int[layout.cellCount * this.blockSize];
+		this.rowMasks = new int[layout.size * this.blockSize];
+		this.columnMasks = new int[layout.size * this.blockSize];
+		this.squareMasks = new int[layout.size * this.blockSize];
+		this.failed = new boolean[this.blockSize];
+	}
+
+	/**
+	 * Returns whether or not the platform has vectors wide enough for this propagator to be worth using.
+	 */
+	static boolean isSupported()
+	{
+		return SPECIES.length() >= MIN_LANES;
+	}
+
+	/**
+	 * Returns the number of boards propagated at once.
+	 */
+	int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * Loads the given grids into the lanes of the block, starting at the given index. Only the
+	 * vectors holding grids are used, and their lanes past the last grid are filled so that they
+	 * fail immediately and are ignored.
+	 */
+	void load(byte[][] grids, int from)
+	{
+		Arrays.fill(rowMasks, 0);
+		Arrays.fill(columnMasks, 0);
+		Arrays.fill(squareMasks, 0);
+		int count = Math.min(blockSize, grids.length - from);
+		loadedLanes = SPECIES.loopBound(count + SPECIES.length() - 1);
+		for (int lane = 0; lane < loadedLanes; lane++)
+		{
+			byte[] grid = lane < count ? grids[from + lane] : null;
+			failed[lane] = false;
+			for (int cell = 0; cell < layout.cellCount; cell++)
+			{
+				int bit = grid == null ? 2 : grid[cell] == 0 ? 0 : 1 << grid[cell];
+				cells[cell * blockSize + lane] = bit;
+				if ((rowMasks[layout.cellRow[cell] * blockSize + lane] & bit) != 0
+						|| (columnMasks[layout.cellColumn[cell] * blockSize + lane] & bit) != 0
+						|| (squareMasks[layout.cellSquare[cell] * blockSize + lane] & bit) != 0)
+				{
+					failed[lane] = true;
+				}
+
+				rowMasks[layout.cellRow[cell] * blockSize + lane] |= bit;
+				columnMasks[layout.cellColumn[cell] * blockSize + lane] |= bit;
+				squareMasks[layout.cellSquare[cell] * blockSize + lane] |= bit;
+			}
+		}
+	}
+
+	/**
+	 * Fills in singles on every loaded lane of the block until none remain.
+	 */
+	void propagate()
+	{
+		for (int lane = 0; lane < loadedLanes; lane += SPECIES.length())
+		{
+			VectorMask<Integer> laneFailed = VectorMask.fromArray(SPECIES, failed, lane);
+			boolean changed = true;
+			while (changed)
+			{
+				changed = false;
+				for (int cell = 0; cell < layout.cellCount; cell++)
+				{
+					int cellOffset = cell * blockSize + lane;
+					IntVector values = IntVector.fromArray(SPECIES, cells, cellOffset);
+					VectorMask<Integer> empty = values.compare(VectorOperators.EQ, 0);
+					if (!empty.anyTrue())
+					{
+						continue;
+					}
+
+					IntVector candidates = getCandidates(cell, lane);
+					laneFailed = laneFailed.or(empty.and(candidates.compare(VectorOperators.EQ, 0)));
+
+					VectorMask<Integer> single = empty.and(candidates.compare(VectorOperators.NE, 0))
+							.and(candidates.and(candidates.sub(1)).compare(VectorOperators.EQ, 0));
+					if (single.anyTrue())
+					{
+						place(cell, lane, IntVector.zero(SPECIES).blend(candidates, single));
+						changed = true;
+					}
+				}
+
+				for (int[] unit : layout.unitCells)
+				{
+					changed |= propagateHiddenSingles(unit, lane);
+				}
+
+				laneFailed = laneFailed.or(checkUnits(lane));
+			}
+
+			laneFailed.intoArray(failed, lane);
+		}
+	}
+
+	/**
+	 * Places every value of the given unit which has only one possible cell left.
+	 *
+	 * @return Whether or not any value was placed.
+	 */
+	private boolean propagateHiddenSingles(int[] unit, int lane)
+	{
+		IntVector seen = IntVector.zero(SPECIES);
+		IntVector seenTwice = IntVector.zero(SPECIES);
+		for (int cell : unit)
+		{
+			IntVector candidates = getEmptyCandidates(cell, lane);
+			seenTwice = seenTwice.or(seen.and(candidates));
+			seen = seen.or(candidates);
+		}
+
+		IntVector singles = seen.and(seenTwice.not());
+		if (!singles.compare(VectorOperators.NE, 0).anyTrue())
+		{
+			return false;
+		}
+
+		boolean placed = false;
+		for (int cell : unit)
+		{
+			// Candidates are recomputed since earlier placements in this unit may have removed some
+			IntVector candidates = getEmptyCandidates(cell, lane).and(singles);
+			IntVector bit = candidates.and(candidates.neg());
+			if (bit.compare(VectorOperators.NE, 0).anyTrue())
+			{
+				place(cell, lane, bit);
+				placed = true;
+			}
+		}
+
+		return placed;
+	}
+
+	/**
+	 * Returns the lanes in which some unit has a value with nowhere left to go.
+	 */
+	private VectorMask<Integer> checkUnits(int lane)
+	{
+		VectorMask<Integer> invalid = SPECIES.maskAll(false);
+		for (int[] unit : layout.unitCells)
+		{
+			IntVector covered = IntVector.zero(SPECIES);
+			for (int cell : unit)
+			{
+				covered = covered.or(IntVector.fromArray(SPECIES, cells, cell * blockSize + lane)).or(getEmptyCandidates(cell, lane));
+			}
+
+			invalid = invalid.or(covered.compare(VectorOperators.NE, layout.allValues));
+		}
+
+		return invalid;
+	}
+
+	/**
+	 * Returns the candidates of the given cell in every lane of the group.
+	 */
+	private IntVector getCandidates(int cell, int lane)
+	{
+		IntVector row = IntVector.fromArray(SPECIES, rowMasks, layout.cellRow[cell] * blockSize + lane);
+		IntVector column = IntVector.fromArray(SPECIES, columnMasks, layout.cellColumn[cell] * blockSize + lane);
+		IntVector square = IntVector.fromArray(SPECIES, squareMasks, layout.cellSquare[cell] * blockSize + lane);
+		return row.or(column).or(square).not().and(layout.allValues);
+	}
+
+	/**
+	 * Returns the candidates of the given cell in the lanes where it is empty, and zero elsewhere.
+	 */
+	private IntVector getEmptyCandidates(int cell, int lane)
+	{
+		IntVector values = IntVector.fromArray(SPECIES, cells, cell * blockSize + lane);
+		return getCandidates(cell, lane).blend(0, values.compare(VectorOperators.NE, 0));
+	}
+
+	/**
+	 * ORs the given value bits into the given cell and its row, column and square masks.
+	 */
+	private void place(int cell, int lane, IntVector bits)
+	{
+		int cellOffset = cell * blockSize + lane;
+		IntVector.fromArray(SPECIES, cells, cellOffset).or(bits).intoArray(cells, cellOffset);
+
+		int rowOffset = layout.cellRow[cell] * blockSize + lane;
+		IntVector.fromArray(SPECIES, rowMasks, rowOffset).or(bits).intoArray(rowMasks, rowOffset);
+		int columnOffset = layout.cellColumn[cell] * blockSize + lane;
+		IntVector.fromArray(SPECIES, columnMasks, columnOffset).or(bits).intoArray(columnMasks, columnOffset);
+		int squareOffset = layout.cellSquare[cell] * blockSize + lane;
+		IntVector.fromArray(SPECIES, squareMasks, squareOffset).or(bits).intoArray(squareMasks, squareOffset);
+	}
+
+	/**
+	 * Returns whether or not the given lane of the block was found to have no solution.
+	 */
+	boolean isFailed(int lane)
+	{
+		return failed[lane];
+	}
+
+	/**
+	 * Copies the values of the given lane of the block into the given grid, with 0 for every empty cell.
+	 *
+	 * @return Whether or not every cell of the lane is filled.
+	 */
+	boolean store(int lane, byte[] grid)
+	{
+		boolean complete = true;
+		for (int cell = 0; cell < grid.length; cell++)
+		{
+			int bit = cells[cell * blockSize + lane];
+			grid[cell] = (byte) (bit == 0 ? 0 : Integer.numberOfTrailingZeros(bit));
+			complete &= bit != 0;
+		}
+
+		return complete;
+	}
+}